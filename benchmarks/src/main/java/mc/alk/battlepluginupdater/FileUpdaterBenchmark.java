@@ -0,0 +1,112 @@
+package mc.alk.battlepluginupdater;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import mc.euro.version.VersionFactory;
+
+/**
+ * {@link FileUpdater#update()} migrating a generated config shaped like a
+ * large arena plugin's: many sections, each with the same handful of keys,
+ * and a {@link MigrationChain} doing the same in one step per rule.
+ * The config is written again before every invocation, as an update replaces it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class FileUpdaterBenchmark {
+
+    @Param({"5000"})
+    private int lines;
+
+    private File folder;
+    private File config;
+    private File backups;
+    private byte[] contents;
+
+    @Setup
+    public void setup() throws IOException {
+        folder = Files.createTempDirectory("file-updater").toFile();
+        config = new File(folder, "config.yml");
+        backups = new File(folder, "backups");
+        backups.mkdir();
+
+        StringBuilder yaml = new StringBuilder("configVersion: 1.0\n");
+        for (int arena = 0, written = 1; written < lines; arena++, written += 12) {
+            yaml.append("arena").append(arena).append(":\n")
+                    .append("  enabled: true\n")
+                    .append("  nLives: 1\n")
+                    .append("  teamSize: 1+\n")
+                    .append("  nTeams: 2+\n")
+                    .append("  preReqs:\n")
+                    .append("    options: [clearInventory]\n")
+                    .append("  onStart:\n")
+                    .append("    options: [teleportIn, pvpOn, blockBreakOff]\n")
+                    .append("  victoryCondition: LastManStanding\n")
+                    .append("  # The old name of this option\n")
+                    .append("  matchTime: 300\n");
+        }
+        contents = yaml.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Setup(Level.Invocation)
+    public void writeConfig() throws IOException {
+        Files.write(config.toPath(), contents);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        for (File file : backups.listFiles()) {
+            file.delete();
+        }
+        backups.delete();
+        config.delete();
+        folder.delete();
+    }
+
+    @Benchmark
+    public Object update() throws IOException {
+        FileUpdater updater = new FileUpdater(config, backups, null, null);
+        updater.replace("configVersion:.*", "configVersion: 2.0");
+        updater.replace(".*matchTime:.*", "  matchDuration: 300");
+        updater.addAfter(".*victoryCondition:.*", "  victoryTime: 0");
+        updater.addBefore(".*nLives:.*", "  # Lives each player has");
+        updater.delete(".*# The old name of this option.*");
+        updater.replaceAll("blockBreakOff", "blockBreak: false");
+        updater.replaceAll("pvpOn", "pvp: true");
+        return updater.update();
+    }
+
+    @Benchmark
+    public Object migrate() throws IOException {
+        MigrationChain chain = new MigrationChain(config, backups);
+        chain.step(VersionFactory.getNewVersion("2.0")).replace("configVersion:.*", "configVersion: 2.0");
+        chain.step(VersionFactory.getNewVersion("3.0")).replace(".*matchTime:.*", "  matchDuration: 300");
+        chain.step(VersionFactory.getNewVersion("4.0")).addAfter(".*victoryCondition:.*", "  victoryTime: 0");
+        chain.step(VersionFactory.getNewVersion("5.0")).addBefore(".*nLives:.*", "  # Lives each player has");
+        chain.step(VersionFactory.getNewVersion("6.0")).delete(".*# The old name of this option.*");
+        chain.step(VersionFactory.getNewVersion("7.0")).replaceAll("blockBreakOff", "blockBreak: false");
+        chain.step(VersionFactory.getNewVersion("8.0")).replaceAll("pvpOn", "pvp: true");
+        return chain.migrate(VersionFactory.getNewVersion("1.0"));
+    }
+}
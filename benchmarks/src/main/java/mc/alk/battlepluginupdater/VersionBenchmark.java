@@ -0,0 +1,89 @@
+package mc.alk.battlepluginupdater;
+
+import mc.alk.battlepluginupdater.checker.GitHubUpdateChecker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Version comparisons as made by the checkers' {@link GitHubUpdateChecker#VERSION_SCHEME_DECIMAL}
+ * and by {@link Updater} when it reads the version out of a file title. Lives in the updater's
+ * package to reach {@link Updater#versionOf(String)}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class VersionBenchmark {
+
+    @Param({"1000"})
+    private int releases;
+
+    private String[] versions;
+    private String[] titles;
+    private List<String> list;
+    private int next;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        versions = new String[releases];
+        titles = new String[releases];
+        for (int i = 0; i < releases; i++) {
+            String version = random.nextInt(4) + "." + random.nextInt(20) + "." + random.nextInt(50);
+            switch (random.nextInt(4)) {
+                case 0:
+                    version += "-SNAPSHOT";
+                    break;
+                case 1:
+                    version = "v" + version + "-beta";
+                    break;
+                default:
+            }
+            versions[i] = version;
+            titles[i] = "BattleArena v" + version + " for 1.9";
+        }
+        list = new ArrayList<>(releases);
+    }
+
+    @Benchmark
+    public String compareDecimal() {
+        int i = next;
+        next = (i + 1) % releases;
+        return GitHubUpdateChecker.VERSION_SCHEME_DECIMAL.compareVersions(versions[i], versions[(i + 7) % releases]);
+    }
+
+    @Benchmark
+    public String versionOfTitle() {
+        int i = next;
+        next = (i + 1) % releases;
+        return Updater.versionOf(titles[i]);
+    }
+
+    @Benchmark
+    public void sortReleases(Blackhole blackhole) {
+        list.clear();
+        Collections.addAll(list, versions);
+        list.sort(Comparator.comparing(VersionKey::parse));
+        blackhole.consume(list);
+    }
+}
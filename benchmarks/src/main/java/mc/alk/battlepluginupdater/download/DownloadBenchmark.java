@@ -0,0 +1,136 @@
+package mc.alk.battlepluginupdater.download;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The download loop fetching a file from an HTTP server in the same JVM, so
+ * only the updater's own overhead is measured: buffers, progress, throttling
+ * checks and the write to disk. The server advertises byte ranges, so
+ * downloads over several connections are split into segments.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class DownloadBenchmark {
+
+    private static final String ETAG = "\"benchmark\"";
+
+    @Param({"16777216"})
+    private int size;
+
+    @Param({"1", "4"})
+    private int connections;
+
+    private byte[] body;
+    private HttpServer server;
+    private ExecutorService serverThreads;
+    private String link;
+    private File folder;
+    private File target;
+
+    @Setup
+    public void setup() throws IOException {
+        body = new byte[size];
+        new Random(42).nextBytes(body);
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/release.jar", this::serve);
+        serverThreads = Executors.newFixedThreadPool(8);
+        server.setExecutor(serverThreads);
+        server.start();
+        link = "http://127.0.0.1:" + server.getAddress().getPort() + "/release.jar";
+
+        folder = Files.createTempDirectory("download").toFile();
+        target = new File(folder, "release.jar");
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        try (InputStream request = exchange.getRequestBody()) {
+            while (request.read() >= 0) {
+                // Nothing is sent with a GET, but the exchange must be read before it is answered
+            }
+        }
+
+        long start = 0, end = size - 1;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        boolean partial = range != null && range.startsWith("bytes=") && (ifRange == null || ifRange.equals(ETAG));
+        if (partial) {
+            String[] bounds = range.substring("bytes=".length()).split("-", 2);
+            start = Long.parseLong(bounds[0]);
+            if (!bounds[1].isEmpty()) {
+                end = Math.min(end, Long.parseLong(bounds[1]));
+            }
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + size);
+        }
+        exchange.getResponseHeaders().set("ETag", ETAG);
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        exchange.sendResponseHeaders(partial ? 206 : 200, end - start + 1);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body, (int) start, (int) (end - start + 1));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop(0);
+        serverThreads.shutdownNow();
+        target.delete();
+        File[] staging = new File(folder, ".staging").listFiles();
+        if (staging != null) {
+            for (File file : staging) {
+                file.delete();
+            }
+        }
+        new File(folder, ".staging").delete();
+        folder.delete();
+    }
+
+    @Benchmark
+    public File run() throws IOException {
+        Download download = new Download(link, target);
+        download.setConnections(connections);
+        return download.run();
+    }
+
+    @Benchmark
+    public long stream() throws IOException {
+        long[] read = new long[1];
+        byte[] buffer = new byte[8192];
+        new Download(link, target).stream(in -> {
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                read[0] += n;
+            }
+        });
+        return read[0];
+    }
+}
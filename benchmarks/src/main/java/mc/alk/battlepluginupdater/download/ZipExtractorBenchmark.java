@@ -0,0 +1,146 @@
+package mc.alk.battlepluginupdater.download;
+
+import mc.alk.battlepluginupdater.FolderIndex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * {@link ZipExtractor} staging a generated release bundle: a jar for each of a
+ * few installed plugins, resources for their data folders, and entries that
+ * belong nowhere and are skipped. The bundle is extracted both as a stream, as
+ * when it is downloaded over one connection, and from a file, as when the
+ * download was split. Staged files are discarded after each invocation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ZipExtractorBenchmark {
+
+    private static final int PLUGINS = 4;
+
+    @Param({"200"})
+    private int resources;
+
+    @Param({"16384"})
+    private int resourceSize;
+
+    @Param({"1", "4"})
+    private int workers;
+
+    private File folder;
+    private File pluginsFolder;
+    private File updateFolder;
+    private File bundle;
+
+    @Setup
+    public void setup() throws IOException {
+        folder = Files.createTempDirectory("zip-extractor").toFile();
+        pluginsFolder = new File(folder, "plugins");
+        updateFolder = new File(pluginsFolder, "update");
+        updateFolder.mkdirs();
+        for (int i = 0; i < PLUGINS; i++) {
+            new File(pluginsFolder, "Plugin" + i).mkdir();
+            new File(pluginsFolder, "Plugin" + i + ".jar").createNewFile();
+        }
+
+        Random random = new Random(42);
+        bundle = new File(folder, "bundle.zip");
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(bundle))) {
+            for (int i = 0; i < PLUGINS; i++) {
+                entry(zip, "Plugin" + i + ".jar", random, 1024 * 1024, false); // Jars barely compress
+            }
+            for (int i = 0; i < resources; i++) {
+                entry(zip, "Plugin" + (i % PLUGINS) + "/arenas/arena" + i + ".yml", random, resourceSize, true);
+            }
+            for (int i = 0; i < resources / 10; i++) {
+                entry(zip, "Unrelated/file" + i + ".txt", random, resourceSize, true);
+            }
+        }
+    }
+
+    private static void entry(ZipOutputStream zip, String name, Random random, int size, boolean text) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        byte[] data = new byte[size];
+        if (text) {
+            for (int i = 0; i < size; i++) {
+                data[i] = (byte) (i % 64 == 63 ? '\n' : 'a' + random.nextInt(8));
+            }
+        } else {
+            random.nextBytes(data);
+        }
+        zip.write(data);
+        zip.closeEntry();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.walkFileTree(folder.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private ZipExtractor extractor() {
+        ZipExtractor extractor = new ZipExtractor(pluginsFolder, updateFolder, FolderIndex.get(pluginsFolder)::contains);
+        extractor.setWorkers(workers);
+        return extractor;
+    }
+
+    @Benchmark
+    public void extractStream() throws IOException {
+        ZipExtractor extractor = extractor();
+        try (InputStream in = new FileInputStream(bundle)) {
+            extractor.extract(in);
+        } finally {
+            extractor.discard();
+        }
+    }
+
+    @Benchmark
+    public void extractFile() throws IOException {
+        ZipExtractor extractor = extractor();
+        try {
+            extractor.extract(bundle);
+        } finally {
+            extractor.discard();
+        }
+    }
+}
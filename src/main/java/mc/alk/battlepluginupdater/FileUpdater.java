@@ -11,8 +11,11 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Map.Entry;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Random;
 
 import mc.euro.version.Version;
@@ -50,8 +53,9 @@ public class FileUpdater {
         }
     }
 
-    HashMap<String, Update> updates = new HashMap<String, Update>();
-    HashMap<String, String> replaces = new HashMap<String, String>();
+    /// Linked, so rules are tried in the order they were first added
+    HashMap<String, Update> updates = new LinkedHashMap<String, Update>();
+    HashMap<String, String> replaces = new LinkedHashMap<String, String>();
 
     public FileUpdater(File oldFile, File backupDir, Version newVersion, Version oldVersion) {
         this.oldFile = oldFile.getAbsoluteFile();
@@ -110,55 +114,8 @@ public class FileUpdater {
             return null;
         }
 
-        boolean quit = false;
-        String line = null;
         try {
-            while ((line = br.readLine()) != null && !quit) {
-                boolean foundMatch = false;
-                for (Entry<String, Update> entry : updates.entrySet()) {
-                    Update up = entry.getValue();
-                    switch (up.searchType) {
-                        case MATCHES:
-                            if (!line.matches(up.search)) {
-                                continue;
-                            }
-                            break;
-                        case CONTAINS:
-                            if (!line.contains(up.search)) {
-                                continue;
-                            }
-                            break;
-                    }
-                    foundMatch = true;
-                    if (up.type == UpdateType.DELETEALLFROM) {
-                        quit = true;
-                        break;
-                    }
-
-                    if (up.type == UpdateType.ADDAFTER) { /// add the original line before
-                        fw.write(line + "\n");
-                    }
-
-                    /// Add all the lines
-                    if (up.type != UpdateType.DELETE) {
-                        for (String update : up.updates) {
-                            fw.write(update + "\n");
-                        }
-                    }
-
-                    if (up.type == UpdateType.ADDBEFORE) { /// add original line after
-                        fw.write(line + "\n");
-                    }
-
-                    break;
-                }
-                if (!foundMatch) {
-                    for (Entry<String, String> rs : replaces.entrySet()) {
-                        line = line.replaceAll(rs.getKey(), rs.getValue());
-                    }
-                    fw.write(line + "\n");
-                }
-            }
+            rewrite(br, fw, Collections.singletonList(this));
         } catch (IOException e) {
             e.printStackTrace();
         } finally {
@@ -171,13 +128,86 @@ public class FileUpdater {
             } catch (Exception e) {
             }
         }
-        String nameWithoutExt = oldFile.getName().replaceFirst("[.][^.]+$", "");
-        String ext = oldFile.getName().substring(nameWithoutExt.length() + 1);
+        copy(oldFile, backupFile(oldFile, backupDir, oldVersion));
+        return renameTo(tempFile, oldFile) ? updateVersion : null;
+    }
+
+    static File backupFile(File file, File backupDir, Version version) {
+        String nameWithoutExt = file.getName().replaceFirst("[.][^.]+$", "");
+        String ext = file.getName().substring(nameWithoutExt.length() + 1);
         if (ext.isEmpty()) {
             ext = ".bk";
         }
-        copy(oldFile, new File(backupDir + "/" + nameWithoutExt + "." + oldVersion + "." + ext));
-        return renameTo(tempFile, oldFile) ? updateVersion : null;
+        return new File(backupDir + "/" + nameWithoutExt + "." + version + "." + ext);
+    }
+
+    /**
+     * Write the lines of a file through the rules of several updaters, each
+     * given the output of the one before, as if they had updated the file one
+     * after the other. Lines flow through every step as they are read, so
+     * nothing is written in between.
+     *
+     * @param in the lines to update
+     * @param out where the updated lines are written
+     * @param steps the updaters, in the order they apply
+     * @throws IOException if a line can't be read or written
+     */
+    static void rewrite(BufferedReader in, Writer out, List<FileUpdater> steps) throws IOException {
+        Step[] pipeline = new Step[steps.size()];
+        for (int i = 0; i < pipeline.length; i++) {
+            FileUpdater step = steps.get(i);
+            /// Compile the rules once, each line is then scanned once for all of them
+            pipeline[i] = new Step(new RuleMatcher(step.updates.values(), step.replaces.entrySet()));
+        }
+        String line;
+        while ((line = in.readLine()) != null && (pipeline.length == 0 || !pipeline[0].quit)) {
+            write(pipeline, 0, line, out);
+        }
+    }
+
+    private static final class Step {
+
+        final RuleMatcher rules;
+        boolean quit; /// Once a DELETEALLFROM matched, the step drops the rest of its lines
+
+        Step(RuleMatcher rules) {
+            this.rules = rules;
+        }
+    }
+
+    private static void write(Step[] pipeline, int index, String line, Writer out) throws IOException {
+        if (index == pipeline.length) {
+            out.write(line + "\n");
+            return;
+        }
+        Step step = pipeline[index];
+        if (step.quit) {
+            return;
+        }
+        Update up = step.rules.match(line);
+        if (up == null) {
+            write(pipeline, index + 1, step.rules.replace(line), out);
+            return;
+        }
+        if (up.type == UpdateType.DELETEALLFROM) {
+            step.quit = true;
+            return;
+        }
+
+        if (up.type == UpdateType.ADDAFTER) { /// add the original line before
+            write(pipeline, index + 1, line, out);
+        }
+
+        /// Add all the lines
+        if (up.type != UpdateType.DELETE) {
+            for (String update : up.updates) {
+                write(pipeline, index + 1, update, out);
+            }
+        }
+
+        if (up.type == UpdateType.ADDBEFORE) { /// add original line after
+            write(pipeline, index + 1, line, out);
+        }
     }
 
     public static boolean renameTo(File file1, File file2) throws IOException {
@@ -0,0 +1,99 @@
+package mc.alk.battlepluginupdater;
+
+import org.bukkit.plugin.Plugin;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A cached set of the names in a folder, used to check whether a jar or data
+ * folder in an update is installed without listing the plugins folder for
+ * every entry.
+ * <p>
+ * The set is rebuilt whenever the folder's modification time changes, which
+ * happens whenever a file is added to, removed from or renamed in it. As some
+ * filesystems only keep modification times to the second or two, an index
+ * built within {@value #MTIME_GRANULARITY} ms of the last change is not
+ * trusted, and is rebuilt on the next lookup.
+ */
+public final class FolderIndex {
+
+    private static final long MTIME_GRANULARITY = 2000; // Coarsest modification time kept by common filesystems
+
+    private static final Map<File, FolderIndex> indexes = new HashMap<>();
+
+    private final File folder;
+    private Set<String> names = Collections.emptySet();
+    private long modified = -1; // Modification time of the folder when the set was built
+    private long built; // When the set was built
+
+    private FolderIndex(File folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * Get the index of a folder.
+     *
+     * @param folder the folder
+     * @return the index of the folder
+     */
+    public static synchronized FolderIndex get(File folder) {
+        File key = folder.getAbsoluteFile();
+        FolderIndex index = indexes.get(key);
+        if (index == null) {
+            index = new FolderIndex(key);
+            indexes.put(key, index);
+        }
+        return index;
+    }
+
+    /**
+     * Get the index of the plugins folder a plugin was loaded from.
+     *
+     * @param plugin the plugin
+     * @return the index of the plugins folder
+     */
+    public static FolderIndex get(Plugin plugin) {
+        return get(plugin.getDataFolder().getParentFile());
+    }
+
+    /**
+     * Check if a file or folder with the given name is in the folder.
+     *
+     * @param name the name to check for
+     * @return true if the folder holds something with this name
+     */
+    public synchronized boolean contains(String name) {
+        long lastModified = folder.lastModified();
+        if (lastModified != modified || lastModified >= built - MTIME_GRANULARITY) {
+            rebuild(lastModified);
+        }
+        return names.contains(name);
+    }
+
+    /**
+     * Forget the names in the folder, so they are listed again on the next
+     * lookup.
+     */
+    public synchronized void invalidate() {
+        modified = -1;
+    }
+
+    private void rebuild(long lastModified) {
+        built = System.currentTimeMillis();
+        modified = lastModified;
+        String[] list = folder.list();
+        if (list == null) {
+            names = Collections.emptySet();
+            return;
+        }
+
+        Set<String> set = new HashSet<>(list.length * 2);
+        Collections.addAll(set, list);
+        names = set;
+    }
+}
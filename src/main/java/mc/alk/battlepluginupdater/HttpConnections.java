@@ -0,0 +1,169 @@
+package mc.alk.battlepluginupdater;
+
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Opens every HTTP connection made by the updater, so that checks and
+ * downloads of many plugins share warm connections to the same hosts.
+ * <p>
+ * The connections themselves are pooled by the JDK: a connection whose
+ * response body was read to the end and closed goes back to its keep-alive
+ * cache, keyed by host, and is evicted once it has been idle for as long as
+ * the server allows (5 seconds if the server doesn't say). This class makes
+ * sure that happens:
+ * <ul>
+ * <li>{@link #release(HttpURLConnection)} reads whatever is left of a body
+ * and closes it, whether or not the caller read it. Bodies too large to be
+ * worth reading have their connection closed instead.</li>
+ * <li>No more than {@link #setMaxPerHost(int) a few} connections are open to
+ * the same host at once. Further requests wait for one to be released, and
+ * then reuse it, instead of each opening its own and paying for another DNS
+ * lookup and TLS handshake.</li>
+ * </ul>
+ * Every connection opened here must be passed to {@link #release(HttpURLConnection)}
+ * or {@link #abort(HttpURLConnection)} when done with, usually in a finally
+ * block. Releasing a connection whose request failed, or releasing it more
+ * than once, is safe.
+ */
+public final class HttpConnections {
+
+    public static final String USER_AGENT = "BattlePluginUpdater";
+
+    private static final int CONNECT_TIMEOUT = 5000;
+    private static final int READ_TIMEOUT = 30000;
+    private static final int DEFAULT_MAX_PER_HOST = 4; // Below the JDK's default of 5 idle connections kept per host
+    private static final int MAX_DRAIN = 64 * 1024; // Largest unread body read to keep its connection alive
+
+    private static final ConcurrentMap<String, Semaphore> hosts = new ConcurrentHashMap<>();
+    private static final Map<HttpURLConnection, Semaphore> leased = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    private static volatile int maxPerHost = DEFAULT_MAX_PER_HOST;
+
+    private HttpConnections() {
+    }
+
+    /**
+     * Set the maximum number of connections open to the same host at once.
+     * Only hosts first contacted afterwards are affected.
+     *
+     * @param max the maximum number of connections per host
+     */
+    public static void setMaxPerHost(int max) {
+        Preconditions.checkArgument(max > 0, "Connections per host must be greater than 0");
+        maxPerHost = max;
+    }
+
+    /**
+     * Open a connection, waiting until fewer than the maximum number of
+     * connections are open to its host. The connection has the updater's
+     * timeouts and User-Agent, and has not been sent yet.
+     *
+     * @param link the url to connect to
+     * @return an unsent connection
+     * @throws IOException if the url is invalid or the wait was interrupted
+     */
+    public static HttpURLConnection open(String link) throws IOException {
+        URL url = new URL(link);
+        Semaphore permits = hosts.computeIfAbsent(host(url), host -> new Semaphore(maxPerHost, true));
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a connection to " + url.getHost());
+        }
+
+        try {
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+            connection.setRequestProperty("User-Agent", USER_AGENT);
+            leased.put(connection, permits);
+            return connection;
+        } catch (IOException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Read the rest of the response body, close it, and let another request
+     * to the same host go ahead. The connection goes back to the keep-alive
+     * cache if the server allows it.
+     *
+     * @param connection a connection from {@link #open(String)}
+     */
+    public static void release(HttpURLConnection connection) {
+        if (!leased.containsKey(connection)) {
+            return; // Already released or aborted
+        }
+
+        try {
+            InputStream in = connection.getErrorStream();
+            if (in == null) {
+                in = connection.getInputStream(); // Rethrows if the request failed, it isn't sent again
+            }
+            try {
+                byte[] skip = new byte[8192];
+                long total = 0;
+                int read;
+                while ((read = in.read(skip)) >= 0) {
+                    total += read;
+                    if (total > MAX_DRAIN) {
+                        connection.disconnect();
+                        break;
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // The connection failed or its body was already closed, the JDK has dealt with it
+        } finally {
+            free(connection);
+        }
+    }
+
+    /**
+     * Close a connection without reading the rest of its response, when the
+     * rest is large or no longer wanted, and let another request to the same
+     * host go ahead.
+     *
+     * @param connection a connection from {@link #open(String)}
+     */
+    public static void abort(HttpURLConnection connection) {
+        if (!leased.containsKey(connection)) {
+            return; // Already released or aborted
+        }
+
+        try {
+            connection.disconnect();
+        } finally {
+            free(connection);
+        }
+    }
+
+    private static void free(HttpURLConnection connection) {
+        Semaphore permits = leased.remove(connection);
+        if (permits != null) {
+            permits.release();
+        }
+    }
+
+    private static String host(URL url) {
+        int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+        return url.getProtocol() + "://" + url.getHost().toLowerCase(Locale.ROOT) + ":" + port;
+    }
+}
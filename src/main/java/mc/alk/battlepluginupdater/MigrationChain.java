@@ -0,0 +1,104 @@
+package mc.alk.battlepluginupdater;
+
+import com.google.common.base.Preconditions;
+
+import mc.euro.version.Version;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * The updates of a file from every past version to the current one, applied
+ * together.
+ * <p>
+ * Each step is a {@link FileUpdater} holding the rules that update the file to
+ * its version. A file several versions behind is updated by every step after
+ * its version, in order, but lines flow through all of them as they are read:
+ * the file is read once, written once and backed up once, under its old
+ * version, however many versions it jumps.
+ *
+ * <pre>
+ * MigrationChain chain = new MigrationChain(config, backups);
+ * chain.step(VersionFactory.getNewVersion("2.0")).replace(".*matchTime:.*", "  matchDuration: 300");
+ * chain.step(VersionFactory.getNewVersion("2.1")).addAfter(".*victoryCondition:.*", "  victoryTime: 0");
+ * Version updated = chain.migrate(configVersion);
+ * </pre>
+ */
+public class MigrationChain {
+
+    private final File file;
+    private final File backupDir;
+    @SuppressWarnings("rawtypes")
+    private final NavigableMap<Version, FileUpdater> steps = new TreeMap<>();
+
+    public MigrationChain(File file, File backupDir) {
+        Preconditions.checkArgument(file != null, "File cannot be null");
+        Preconditions.checkArgument(backupDir != null, "Backup folder cannot be null");
+        this.file = file.getAbsoluteFile();
+        this.backupDir = backupDir.getAbsoluteFile();
+    }
+
+    /**
+     * Get the step updating the file to a version, adding it if there is none.
+     * Rules are added to it as to any {@link FileUpdater}, but are only
+     * applied by {@link #migrate(Version)}.
+     *
+     * @param version the version the step updates the file to
+     * @return the step
+     */
+    public FileUpdater step(Version version) {
+        Preconditions.checkArgument(version != null, "Version cannot be null");
+        FileUpdater step = steps.get(version);
+        if (step == null) {
+            step = new FileUpdater(file, backupDir, version, null);
+            steps.put(version, step);
+        }
+        return step;
+    }
+
+    /**
+     * Update the file from a version by every step after it.
+     *
+     * @param version the version the file is at
+     * @return the version the file was updated to, or the same version if no
+     * step is after it
+     * @throws IOException if the file can't be read, written or backed up, in
+     * which case it is left as it was
+     */
+    @SuppressWarnings("unchecked")
+    public Version migrate(Version version) throws IOException {
+        Preconditions.checkArgument(version != null, "Version cannot be null");
+        NavigableMap<Version, FileUpdater> applicable = steps.tailMap(version, false);
+        if (applicable.isEmpty()) {
+            return version;
+        }
+        Version updateVersion = applicable.lastKey();
+        System.out.println("[Plugin Updater] updating " + file.getName() + " from " + version + " to " + updateVersion
+                + " in " + applicable.size() + " steps");
+        System.out.println("[Plugin Updater] old version backup inside of " + backupDir.getAbsolutePath());
+
+        FileUpdater.makeIfNotExists(backupDir);
+        File tempFile = Files.createTempFile(backupDir.toPath(), "temp-", ".yml").toFile();
+        try {
+            try (BufferedReader in = new BufferedReader(new FileReader(file));
+                 BufferedWriter out = new BufferedWriter(new FileWriter(tempFile))) {
+                FileUpdater.rewrite(in, out, new ArrayList<>(applicable.values()));
+            }
+            Files.copy(file.toPath(), FileUpdater.backupFile(file, backupDir, version).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            FileUpdater.renameTo(tempFile, file);
+        } finally {
+            FileUpdater.deleteIfExists(tempFile);
+        }
+        return updateVersion;
+    }
+}
@@ -2,6 +2,7 @@ package mc.alk.battlepluginupdater;
 
 import java.io.File;
 import java.util.HashSet;
+import java.util.concurrent.RejectedExecutionException;
 
 import mc.euro.version.Version;
 import mc.euro.version.VersionFactory;
@@ -95,7 +96,8 @@ public class PluginUpdater {
      * Check for updates for a given plugin. If there are updates then it will
      * announce the newer version to the console. It will download the newer jar
      * if the "update" variable is true. This happens in an asynchronous manner
-     * to not lag the server while checking for the update
+     * on the shared {@link UpdateExecutor} to not lag the server while checking
+     * for the update
      *
      * @param plugin JavaPlugin
      * @param file File from the bukkit plugin, use this.getFile()
@@ -112,7 +114,8 @@ public class PluginUpdater {
                 || updateOption == UpdateOption.NONE && announceOption == AnnounceUpdateOption.NONE) {
             return;
         }
-        Thread t = new Thread(new Runnable() {
+        UpdateCache.saveOnDisable(plugin);
+        Runnable check = new Runnable() {
             @Override
             public void run() {
                 UpdateOption update = updateOption;
@@ -158,17 +161,21 @@ public class PluginUpdater {
                 }
                 Version curVersion = VersionFactory.getPluginVersion(plugin.getName());
                 String remote = up.getLatestName();
-                String delim = "^v|[\\s_-]v";
+                String remoteVersion = remote != null ? Updater.versionOf(remote) : null;
                 UpdateOption remoteReleaseType = up.getLatestType() != null
                         ? UpdateOption.fromString(up.getLatestType().name()) : null;
 
-                if (remoteReleaseType == null || remote == null || remote.split(delim).length != 2) {
+                if (remoteReleaseType == null || remoteVersion == null) {
                     err("&4[" + getNameAndVersion(plugin) + "] &ccan't find a version for the plugin result was &f"
                             + up.getResult() + " &creleaseType: " + up.getLatestType());
                     return;
                 }
 
-                if (curVersion.isLessThan(remote)) { /// We have found a newer version
+                /// Versions with numbers are compared from their cached keys, the rest and ties (1.2.3-b45, 1.2.3-b46) by the title
+                VersionKey localKey = VersionKey.parse(plugin.getDescription().getVersion()), remoteKey = VersionKey.parse(remoteVersion);
+                boolean newer = localKey != null && remoteKey != null && localKey.compareTo(remoteKey) != 0
+                        ? remoteKey.isNewerThan(localKey) : curVersion.isLessThan(remote);
+                if (newer) { /// We have found a newer version
                     /// Check to see if we want this release type
                     if (update.ordinal() >= remoteReleaseType.ordinal()) {
                         info("&2[" + getNameAndVersion(plugin)
@@ -196,8 +203,12 @@ public class PluginUpdater {
                     }
                 }
             }
-        });
-        t.start();
+        };
+        try {
+            UpdateExecutor.execute(check);
+        } catch (RejectedExecutionException e) {
+            err("&4[" + getNameAndVersion(plugin) + "] &ctoo many update checks are waiting, this one is skipped");
+        }
     }
 
     static class AnnounceOpListener implements Listener {
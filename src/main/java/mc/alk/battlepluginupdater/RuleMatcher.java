@@ -0,0 +1,304 @@
+package mc.alk.battlepluginupdater;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The rules of a {@link FileUpdater}, compiled once for a whole file.
+ * <p>
+ * Every rule and replacement is compiled to a {@link Pattern} up front. Most
+ * of them can only match a line holding some literal text, such as
+ * "matchTime:" for ".*matchTime:.*", so the literals of all of them are put in
+ * one Aho-Corasick automaton. Each line is scanned by it once, which tells
+ * which rules could possibly match, and only those run their pattern. Rules
+ * are still tried in the order they were given, and the first match wins.
+ * <p>
+ * A matcher keeps state between lines and must only be used by one thread.
+ */
+final class RuleMatcher {
+
+    private final FileUpdater.Update[] updates;
+    private final Matcher[] updateMatchers; // Null for CONTAINS rules
+    private final int[] updateLiterals; // Literal each rule needs, or -1 if it has to be tried on every line
+
+    private final Matcher[] replaceMatchers;
+    private final String[] replacements;
+    private final int[] replaceLiterals;
+
+    // The automaton, node 0 is the root
+    private final char[][] edges; // Sorted labels of each node's children
+    private final int[][] targets; // Child of each label
+    private final int[] fail;
+    private final int[][] outputs; // Literals ending at each node, including through its fail links
+
+    private final int[] seen; // Line number each literal was last seen on
+    private int lineNumber;
+    private String scanned;
+
+    RuleMatcher(Collection<FileUpdater.Update> updates, Collection<Map.Entry<String, String>> replaces) {
+        Map<String, Integer> literals = new HashMap<>();
+
+        this.updates = updates.toArray(new FileUpdater.Update[0]);
+        this.updateMatchers = new Matcher[this.updates.length];
+        this.updateLiterals = new int[this.updates.length];
+        for (int i = 0; i < this.updates.length; i++) {
+            FileUpdater.Update update = this.updates[i];
+            String literal;
+            if (update.searchType == FileUpdater.SearchType.CONTAINS) {
+                literal = update.search;
+            } else {
+                updateMatchers[i] = Pattern.compile(update.search).matcher("");
+                literal = requiredLiteral(update.search);
+            }
+            updateLiterals[i] = id(literals, literal);
+        }
+
+        this.replaceMatchers = new Matcher[replaces.size()];
+        this.replacements = new String[replaces.size()];
+        this.replaceLiterals = new int[replaces.size()];
+        int r = 0;
+        for (Map.Entry<String, String> replace : replaces) {
+            replaceMatchers[r] = Pattern.compile(replace.getKey()).matcher("");
+            replacements[r] = replace.getValue();
+            replaceLiterals[r] = id(literals, requiredLiteral(replace.getKey()));
+            r++;
+        }
+
+        // Build the trie, then its fail links breadth first
+        List<TreeMap<Character, Integer>> children = new ArrayList<>();
+        List<List<Integer>> ends = new ArrayList<>();
+        children.add(new TreeMap<>());
+        ends.add(new ArrayList<>());
+        for (Map.Entry<String, Integer> literal : literals.entrySet()) {
+            int node = 0;
+            for (char c : literal.getKey().toCharArray()) {
+                Integer child = children.get(node).get(c);
+                if (child == null) {
+                    child = children.size();
+                    children.add(new TreeMap<>());
+                    ends.add(new ArrayList<>());
+                    children.get(node).put(c, child);
+                }
+                node = child;
+            }
+            ends.get(node).add(literal.getValue());
+        }
+
+        int nodes = children.size();
+        edges = new char[nodes][];
+        targets = new int[nodes][];
+        fail = new int[nodes];
+        outputs = new int[nodes][];
+        for (int node = 0; node < nodes; node++) {
+            TreeMap<Character, Integer> map = children.get(node);
+            edges[node] = new char[map.size()];
+            targets[node] = new int[map.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> edge : map.entrySet()) {
+                edges[node][i] = edge.getKey();
+                targets[node][i] = edge.getValue();
+                i++;
+            }
+        }
+
+        Queue<Integer> queue = new ArrayDeque<>();
+        outputs[0] = new int[0];
+        for (int child : targets[0]) {
+            fail[child] = 0;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            int[] own = ends.get(node).stream().mapToInt(Integer::intValue).toArray();
+            int[] inherited = outputs[fail[node]];
+            outputs[node] = Arrays.copyOf(own, own.length + inherited.length);
+            System.arraycopy(inherited, 0, outputs[node], own.length, inherited.length);
+
+            for (int i = 0; i < edges[node].length; i++) {
+                int child = targets[node][i];
+                int state = fail[node];
+                int next = step(state, edges[node][i]);
+                while (next < 0 && state != 0) {
+                    state = fail[state];
+                    next = step(state, edges[node][i]);
+                }
+                fail[child] = next < 0 ? 0 : next;
+                queue.add(child);
+            }
+        }
+
+        seen = new int[literals.size()];
+        Arrays.fill(seen, -1);
+    }
+
+    private static int id(Map<String, Integer> literals, String literal) {
+        if (literal == null || literal.isEmpty()) {
+            return -1;
+        }
+        Integer id = literals.get(literal);
+        if (id == null) {
+            id = literals.size();
+            literals.put(literal, id);
+        }
+        return id;
+    }
+
+    /**
+     * Find the first rule that matches a line.
+     *
+     * @param line the line
+     * @return the rule, or null if none match
+     */
+    FileUpdater.Update match(String line) {
+        scan(line);
+        for (int i = 0; i < updates.length; i++) {
+            if (!isCandidate(updateLiterals[i])) {
+                continue;
+            }
+            Matcher matcher = updateMatchers[i];
+            if (matcher == null ? line.contains(updates[i].search) : matcher.reset(line).matches()) {
+                return updates[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Apply every replacement to a line, in order, each to the result of the
+     * one before.
+     *
+     * @param line the line
+     * @return the line with every replacement applied
+     */
+    String replace(String line) {
+        for (int i = 0; i < replaceMatchers.length; i++) {
+            if (line != scanned) {
+                scan(line); // An earlier replacement changed the line
+            }
+            if (!isCandidate(replaceLiterals[i])) {
+                continue;
+            }
+            Matcher matcher = replaceMatchers[i].reset(line);
+            if (matcher.find()) {
+                line = matcher.replaceAll(replacements[i]);
+            }
+        }
+        return line;
+    }
+
+    private boolean isCandidate(int literal) {
+        return literal < 0 || seen[literal] == lineNumber;
+    }
+
+    private void scan(String line) {
+        scanned = line;
+        lineNumber++;
+        int state = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            int next = step(state, c);
+            while (next < 0 && state != 0) {
+                state = fail[state];
+                next = step(state, c);
+            }
+            state = next < 0 ? 0 : next;
+            for (int literal : outputs[state]) {
+                seen[literal] = lineNumber;
+            }
+        }
+    }
+
+    private int step(int node, char c) {
+        int i = Arrays.binarySearch(edges[node], c);
+        return i < 0 ? -1 : targets[node][i];
+    }
+
+    /**
+     * Find text that every match of a pattern must contain: the longest run of
+     * plain characters outside of any group, class or quantifier. Patterns
+     * with alternatives or flags have none, as the run could be avoided or
+     * matched in another case. Neither have patterns with bounded quantifiers,
+     * escapes such as \x41 or \p{Alpha}, back references or nested classes,
+     * rather than risk taking part of them for plain text.
+     *
+     * @param regex the pattern
+     * @return the text, or null if none could be found
+     */
+    static String requiredLiteral(String regex) {
+        if (regex.contains("\\Q") || regex.contains("(?") || regex.indexOf('{') >= 0) {
+            return null;
+        }
+
+        String best = null;
+        StringBuilder run = new StringBuilder();
+        int depth = 0; // Of groups
+        boolean inClass = false;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (inClass) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == '[') {
+                    return null; // A union or intersection of classes
+                } else if (c == ']') {
+                    inClass = false;
+                }
+                continue;
+            }
+
+            char literal = 0;
+            if (c == '\\' && i + 1 < regex.length()) {
+                char escaped = regex.charAt(++i);
+                if (Character.isLetterOrDigit(escaped)) {
+                    return null; // A class, character code or back reference, its text isn't matched as it is
+                }
+                literal = escaped; // An escaped symbol stands for itself
+            } else if ("^$.|?*+()[]{}".indexOf(c) < 0) {
+                literal = c;
+            } else if (c == '|' && depth == 0) {
+                return null;
+            }
+
+            if (literal != 0 && depth == 0) {
+                char next = i + 1 < regex.length() ? regex.charAt(i + 1) : 0;
+                if (next == '?' || next == '*' || next == '{') {
+                    best = longer(best, run); // This character is optional or repeated, the run ends before it
+                    run.setLength(0);
+                } else {
+                    run.append(literal);
+                }
+                continue;
+            }
+
+            best = longer(best, run);
+            run.setLength(0);
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '[') {
+                inClass = true;
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == '^') {
+                    i++;
+                }
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == ']') {
+                    i++; // A ] first in the class is one of its members, not its end
+                }
+            }
+        }
+        return longer(best, run);
+    }
+
+    private static String longer(String best, StringBuilder run) {
+        return run.length() > (best == null ? 0 : best.length()) ? run.toString() : best;
+    }
+}
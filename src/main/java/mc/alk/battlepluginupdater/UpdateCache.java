@@ -0,0 +1,361 @@
+package mc.alk.battlepluginupdater;
+
+import mc.alk.battlepluginupdater.checker.UpdateCheckerRegistry;
+
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.server.PluginDisableEvent;
+import org.bukkit.plugin.Plugin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Remembers the last release lookup for each project. The cache is stored in
+ * plugins/Updater/cache.yml, next to the shared updater config, and is shared
+ * by every plugin using the updater. Each project keeps:
+ * <ul>
+ * <li>the HTTP validators (ETag and Last-Modified) of its last full response,
+ * and the fields that were read from it,</li>
+ * <li>when it was last fetched.</li>
+ * </ul>
+ * Update results are not cached, as they depend on the version installed:
+ * checkers work them out again from the cached fields.
+ * A lookup made within the "cache-ttl" minutes set in config.yml is answered
+ * from the cache without any network I/O. After that, checkers send the
+ * validators back with {@link #addValidators(String, URLConnection)}, and a 304
+ * Not Modified answer reuses the previous fields instead of downloading and
+ * parsing the whole response again.
+ * <p>
+ * The cache is read lazily on first use and written as a snapshot when a plugin
+ * using it is disabled (see {@link #saveOnDisable(Plugin)}). Snapshots are written
+ * to a temporary file and atomically renamed, so a crash never leaves a
+ * half-written cache behind.
+ */
+public final class UpdateCache {
+
+    private static final String CACHE_FILE = "cache.yml";
+    private static final String CONFIG_FILE = "config.yml";
+    private static final long DEFAULT_TTL_MINUTES = 60; // Used when config.yml does not set "cache-ttl"
+
+    private static final Map<File, UpdateCache> caches = new HashMap<>();
+    private static final Set<String> listening = new HashSet<>(); // Plugins that save the cache on disable
+
+    private final Plugin plugin;
+    private final File file;
+    private long ttl; // In milliseconds, 0 disables fresh lookups
+    private Map<String, Entry> entries; // Loaded on first use
+    private final Set<String> dirty = new HashSet<>(); // Keys changed since the last snapshot
+
+    private UpdateCache(Plugin plugin, File file) {
+        this.plugin = plugin;
+        this.file = file;
+    }
+
+    /**
+     * Get the cache shared by all plugins in the same plugins folder as the
+     * given plugin.
+     *
+     * @param plugin the plugin performing the lookup
+     * @return the update cache
+     */
+    public static synchronized UpdateCache get(Plugin plugin) {
+        File updaterFile = new File(plugin.getDataFolder().getParentFile(), "Updater");
+        File cacheFile = new File(updaterFile, CACHE_FILE).getAbsoluteFile();
+        UpdateCache cache = caches.get(cacheFile);
+        if (cache == null) {
+            cache = new UpdateCache(plugin, cacheFile);
+            caches.put(cacheFile, cache);
+        }
+        return cache;
+    }
+
+    /**
+     * Save a snapshot of the cache when the given plugin is disabled. This must
+     * be called from the server thread, usually while the plugin is enabling.
+     * Calling it more than once for the same plugin has no further effect.
+     *
+     * @param plugin the plugin using the cache
+     */
+    public static void saveOnDisable(Plugin plugin) {
+        synchronized (UpdateCache.class) {
+            if (!listening.add(plugin.getName())) {
+                return;
+            }
+        }
+        Bukkit.getPluginManager().registerEvents(new DisableListener(plugin), plugin);
+    }
+
+    /**
+     * Add the header and default values of the shared plugins/Updater/config.yml
+     * to a configuration, before it is created or loaded.
+     *
+     * @param config the updater configuration
+     */
+    public static void addConfigDefaults(YamlConfiguration config) {
+        config.options().header("This configuration file affects all plugins using the Updater system (version 2+ - http://forums.bukkit.org/threads/96681/ )" + '\n'
+                + "If you wish to use your API key, read http://wiki.bukkit.org/ServerMods_API and place it below." + '\n'
+                + "Some updating systems will not adhere to the disabled value, but these may be turned off in their plugin's configuration." + '\n'
+                + "Lookups are cached in cache.yml for cache-ttl minutes, set it to 0 to always contact the remote." + '\n'
+                + "Large downloads are split across up to download-connections connections when the server allows it." + '\n'
+                + "Zipped updates are inflated by up to extract-workers threads at once, 0 picks one per processor up to 4." + '\n'
+                + "With 1 extract-workers and 1 download-connections, zips are extracted as they arrive instead of being saved first." + '\n'
+                + "All downloads together are limited to download-rate-limit KiB/s (0 is unlimited), or to off-peak-rate-limit" + '\n'
+                + "between the off-peak-start and off-peak-end hours. Off-peak hours are disabled when both are the same." + '\n'
+                + "With a github-token, GitHub releases of all plugins are looked up in one request instead of one each.");
+        config.addDefault("api-key", "PUT_API_KEY_HERE");
+        config.addDefault("disable", false);
+        config.addDefault("cache-ttl", 60); // Minutes a lookup is reused without contacting the remote
+        config.addDefault("download-connections", 1); // Connections a large download may be split across
+        config.addDefault("extract-workers", 0); // Threads inflating a zipped update, 0 for one per processor
+        config.addDefault("download-rate-limit", 0); // KiB/s shared by all downloads, 0 is unlimited
+        config.addDefault("off-peak-rate-limit", 0); // KiB/s during off-peak hours, 0 is unlimited
+        config.addDefault("off-peak-start", 0); // Hour of the day off-peak hours start
+        config.addDefault("off-peak-end", 0); // Hour of the day off-peak hours end
+        config.addDefault("github-token", ""); // Token for batched GitHub lookups, empty to look up each repository alone
+    }
+
+    /**
+     * Check whether the cached fields of a project were fetched recently
+     * enough to be used without contacting the remote at all.
+     *
+     * @param key the project key
+     * @return true if the fields are within the configured TTL
+     */
+    public synchronized boolean isFresh(String key) {
+        Entry entry = entries().get(escape(key));
+        return entry != null && !entry.fields.isEmpty() && ttl > 0
+                && System.currentTimeMillis() - entry.fetched < ttl;
+    }
+
+    /**
+     * Add If-None-Match and If-Modified-Since headers for a project to a
+     * request that has not been sent yet. Nothing is added if no fields were
+     * cached for the project, as a 304 response could not be answered.
+     *
+     * @param key the project key
+     * @param connection the unsent connection
+     */
+    public synchronized void addValidators(String key, URLConnection connection) {
+        Entry entry = entries().get(escape(key));
+        if (entry == null || entry.fields.isEmpty()) {
+            return;
+        }
+
+        if (entry.etag != null) {
+            connection.addRequestProperty("If-None-Match", entry.etag);
+        }
+        if (entry.lastModified != null) {
+            connection.addRequestProperty("If-Modified-Since", entry.lastModified);
+        }
+    }
+
+    /**
+     * Get the fields read from the last full response for a project.
+     *
+     * @param key the project key
+     * @return the cached fields, or null if none were cached
+     */
+    public synchronized Map<String, String> getFields(String key) {
+        Entry entry = entries().get(escape(key));
+        return (entry == null || entry.fields.isEmpty()) ? null : Collections.unmodifiableMap(entry.fields);
+    }
+
+    /**
+     * Store the validators of a full response along with the fields read
+     * from it.
+     *
+     * @param key the project key
+     * @param connection the connection the response was read from
+     * @param fields the fields read from the response
+     */
+    public synchronized void store(String key, URLConnection connection, Map<String, String> fields) {
+        store(key, fields);
+        Entry entry = entry(key);
+        entry.etag = connection.getHeaderField("ETag");
+        entry.lastModified = connection.getHeaderField("Last-Modified");
+    }
+
+    /**
+     * Store fields that were not read from a response of their own, such as
+     * one project's part of a batched lookup. Any validators are dropped, as
+     * they would not match the project's own response.
+     *
+     * @param key the project key
+     * @param fields the fields read for the project
+     */
+    public synchronized void store(String key, Map<String, String> fields) {
+        Entry entry = entry(key);
+        entry.etag = null;
+        entry.lastModified = null;
+        entry.fields.clear();
+        entry.fields.putAll(fields);
+        entry.fetched = System.currentTimeMillis();
+    }
+
+    /**
+     * Mark the cached fields of a project as fetched now, after the remote
+     * confirmed they have not changed.
+     *
+     * @param key the project key
+     */
+    public synchronized void touch(String key) {
+        entry(key).fetched = System.currentTimeMillis();
+    }
+
+    /**
+     * Write a snapshot of the projects changed since the last snapshot.
+     * Projects changed by other copies of the updater are read back from the
+     * file first, so they are not overwritten with stale values.
+     */
+    public synchronized void save() {
+        if (dirty.isEmpty()) {
+            return;
+        }
+
+        Map<String, Entry> merged = new LinkedHashMap<>();
+        load(merged);
+        for (String key : dirty) {
+            merged.put(key, entries.get(key));
+        }
+
+        YamlConfiguration config = new YamlConfiguration();
+        for (Map.Entry<String, Entry> e : merged.entrySet()) {
+            Entry entry = e.getValue();
+            ConfigurationSection section = config.createSection(e.getKey());
+            section.set("etag", entry.etag);
+            section.set("last-modified", entry.lastModified);
+            section.set("fetched", entry.fetched);
+            ConfigurationSection fields = section.createSection("fields");
+            for (Map.Entry<String, String> field : entry.fields.entrySet()) {
+                fields.set(field.getKey(), field.getValue());
+            }
+        }
+
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            file.getParentFile().mkdirs();
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                out.write(config.saveToString().getBytes(StandardCharsets.UTF_8));
+                out.getFD().sync();
+            }
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            dirty.clear();
+        } catch (final IOException e) {
+            plugin.getLogger().log(Level.WARNING, "The updater could not save its cache at " + file.getAbsolutePath(), e);
+            temp.delete();
+        }
+    }
+
+    private Entry entry(String key) {
+        String escaped = escape(key);
+        Entry entry = entries().get(escaped);
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(escaped, entry);
+        }
+        dirty.add(escaped);
+        return entry;
+    }
+
+    private Map<String, Entry> entries() {
+        if (entries == null) {
+            entries = new LinkedHashMap<>();
+            load(entries);
+
+            YamlConfiguration config = YamlConfiguration.loadConfiguration(new File(file.getParentFile(), CONFIG_FILE));
+            ttl = TimeUnit.MINUTES.toMillis(Math.max(0, config.getLong("cache-ttl", DEFAULT_TTL_MINUTES)));
+        }
+        return entries;
+    }
+
+    private void load(Map<String, Entry> into) {
+        if (!file.exists()) {
+            return;
+        }
+
+        YamlConfiguration config = new YamlConfiguration();
+        try {
+            config.load(file);
+        } catch (final Exception e) {
+            plugin.getLogger().log(Level.WARNING, "The updater could not load its cache at " + file.getAbsolutePath(), e);
+            return;
+        }
+
+        for (String key : config.getKeys(false)) {
+            ConfigurationSection section = config.getConfigurationSection(key);
+            if (section == null) {
+                continue;
+            }
+
+            Entry entry = new Entry();
+            entry.etag = section.getString("etag");
+            entry.lastModified = section.getString("last-modified");
+            entry.fetched = section.getLong("fetched", 0);
+            ConfigurationSection fields = section.getConfigurationSection("fields");
+            if (fields != null) {
+                for (String field : fields.getKeys(false)) {
+                    entry.fields.put(field, fields.getString(field));
+                }
+            }
+            into.put(key, entry);
+        }
+    }
+
+    /**
+     * Configuration paths are separated by dots, so they can't appear in keys.
+     */
+    private static String escape(String key) {
+        return key.replace('.', '_');
+    }
+
+    private static class Entry {
+
+        private String etag;
+        private String lastModified;
+        private long fetched;
+        private final Map<String, String> fields = new LinkedHashMap<>();
+    }
+
+    private static class DisableListener implements Listener {
+
+        private final Plugin plugin;
+
+        DisableListener(Plugin plugin) {
+            this.plugin = plugin;
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onPluginDisable(PluginDisableEvent event) {
+            if (event.getPlugin() == plugin) {
+                UpdateCache.get(plugin).save();
+                UpdateCheckerRegistry.unregister(plugin); // A new instance of the plugin registers its own
+                synchronized (UpdateCache.class) {
+                    listening.remove(plugin.getName());
+                }
+            }
+        }
+    }
+}
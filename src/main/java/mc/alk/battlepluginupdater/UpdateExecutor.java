@@ -0,0 +1,229 @@
+package mc.alk.battlepluginupdater;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * The executor shared by every update check and download in this JVM.
+ * <p>
+ * Update checks perform blocking HTTP I/O, so they must not run on the
+ * {@link java.util.concurrent.ForkJoinPool#commonPool() common pool} (which
+ * the server and other plugins use for parallel streams) and should not each
+ * spawn their own thread. By default a small pool of named daemon threads with
+ * a bounded queue is used. When the queue is full, a task submitted from an
+ * update task runs on its thread, and any other is rejected with a
+ * {@link RejectedExecutionException}. Blocking I/O so never runs on the
+ * server's main thread, however many checks are requested at once.
+ * <p>
+ * A different {@link ExecutorService} may be plugged in through
+ * {@link #setExecutor(ExecutorService)} before any checks are requested. It
+ * stays owned by the caller, and is not shut down by {@link #shutdown()}.
+ */
+public final class UpdateExecutor {
+
+    private static final int DEFAULT_THREADS = 4; // Maximum number of concurrent checks/downloads
+    private static final int DEFAULT_QUEUE_SIZE = 256; // Tasks waiting for a free thread
+    private static final long KEEP_ALIVE_SECONDS = 30; // Idle threads die off after startup
+    private static final String THREAD_PREFIX = "BattlePluginUpdater-";
+
+    private static final ThreadLocal<Boolean> UPDATE_THREAD = new ThreadLocal<>();
+
+    private static final RejectedExecutionHandler REJECT = (task, pool) -> {
+        if (isUpdateThread() && !pool.isShutdown()) {
+            task.run(); // Already off the main thread, and waiting for a full pool from within it could deadlock
+            return;
+        }
+        throw new RejectedExecutionException("Too many update tasks queued, " + pool.getQueue().size() + " are waiting");
+    };
+
+    private static ExecutorService executor;
+    private static boolean owned; // The executor is the default one, created here
+    private static ScheduledExecutorService timer; // Only waits out delays, the tasks themselves run on the executor
+
+    private UpdateExecutor() {
+    }
+
+    /**
+     * Get the executor used for update tasks, creating the default one if no
+     * executor has been set yet.
+     *
+     * @return the update executor
+     */
+    public static synchronized ExecutorService get() {
+        if (executor == null) {
+            executor = newExecutor(DEFAULT_THREADS, DEFAULT_QUEUE_SIZE);
+            owned = true;
+        }
+        return executor;
+    }
+
+    /**
+     * Replace the executor used for update tasks. The previous executor is not
+     * shut down, as it may be owned by the caller.
+     *
+     * @param service the executor to use. Cannot be null
+     */
+    public static synchronized void setExecutor(ExecutorService service) {
+        Preconditions.checkArgument(service != null, "Executor cannot be null");
+        executor = service;
+        owned = false;
+    }
+
+    /**
+     * Shut down the default executor. An executor set through
+     * {@link #setExecutor(ExecutorService)} belongs to the caller and is only
+     * let go of. Either way, a new default executor will be created the next
+     * time one is needed.
+     */
+    public static synchronized void shutdown() {
+        if (executor != null && owned) {
+            executor.shutdown();
+        }
+        executor = null;
+        owned = false;
+    }
+
+    /**
+     * Create a bounded executor of named daemon threads. Tasks that don't fit
+     * in its queue are rejected, unless they are submitted from an update
+     * task, see {@link UpdateExecutor}.
+     *
+     * @param threads the maximum number of tasks running at once
+     * @param queueSize the maximum number of tasks waiting for a thread
+     * @return a new executor
+     */
+    public static ExecutorService newExecutor(int threads, int queueSize) {
+        Preconditions.checkArgument(threads > 0, "Thread count must be greater than 0");
+        Preconditions.checkArgument(queueSize > 0, "Queue size must be greater than 0");
+
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueSize), new UpdateThreadFactory(), REJECT);
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Run a task on the update executor.
+     *
+     * @param task the task to run
+     * @return a future completed when the task finishes
+     * @throws RejectedExecutionException if too many tasks are queued
+     */
+    public static Future<?> submit(Runnable task) {
+        return get().submit(mark(task));
+    }
+
+    /**
+     * Run a task on the update executor without tracking its completion.
+     *
+     * @param task the task to run
+     * @throws RejectedExecutionException if too many tasks are queued
+     */
+    public static void execute(Runnable task) {
+        get().execute(mark(task));
+    }
+
+    /**
+     * Run a task on the update executor after a delay. The delay is kept by a
+     * daemon thread of this class rather than a plugin's scheduler, so the
+     * task still runs if the plugin that scheduled it is disabled meanwhile.
+     *
+     * @param task the task to run
+     * @param delay the time to wait
+     * @param unit the unit of the delay
+     */
+    public static void schedule(Runnable task, long delay, TimeUnit unit) {
+        ScheduledExecutorService timer;
+        synchronized (UpdateExecutor.class) {
+            if (UpdateExecutor.timer == null) {
+                UpdateExecutor.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, THREAD_PREFIX + "Timer");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            timer = UpdateExecutor.timer;
+        }
+        timer.schedule(() -> {
+            try {
+                execute(task);
+            } catch (RejectedExecutionException e) {
+                mark(task).run(); // The pool is full, this thread is no server thread
+            }
+        }, delay, unit);
+    }
+
+    /**
+     * Supply a value asynchronously on the update executor.
+     *
+     * @param supplier the supplier to run
+     * @param <T> the type of value supplied
+     * @return a future completed with the supplied value, or failed with a
+     * {@link RejectedExecutionException} if too many tasks are queued
+     */
+    public static <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier) {
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                Boolean previous = UPDATE_THREAD.get();
+                UPDATE_THREAD.set(Boolean.TRUE);
+                try {
+                    return supplier.get();
+                } finally {
+                    UPDATE_THREAD.set(previous);
+                }
+            }, get());
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<T> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+
+    /**
+     * Check whether the current thread is running an update task. Update tasks
+     * that would otherwise wait on another update task should run it inline
+     * instead, so a full pool cannot deadlock on itself.
+     *
+     * @return true if called from within an update task
+     */
+    public static boolean isUpdateThread() {
+        return UPDATE_THREAD.get() == Boolean.TRUE;
+    }
+
+    private static Runnable mark(Runnable task) {
+        return () -> {
+            Boolean previous = UPDATE_THREAD.get();
+            UPDATE_THREAD.set(Boolean.TRUE);
+            try {
+                task.run();
+            } finally {
+                UPDATE_THREAD.set(previous);
+            }
+        };
+    }
+
+    private static class UpdateThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, THREAD_PREFIX + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -2,27 +2,26 @@ package mc.alk.battlepluginupdater;
 
 import mc.alk.battlepluginupdater.checker.SpigotUpdateChecker;
 import mc.alk.battlepluginupdater.checker.GitHubUpdateChecker;
+import mc.alk.battlepluginupdater.checker.JsonFields;
+import mc.alk.battlepluginupdater.download.BandwidthLimiter;
+import mc.alk.battlepluginupdater.download.Download;
+import mc.alk.battlepluginupdater.download.TransferPipeline;
 
+import com.google.gson.JsonSyntaxException;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.plugin.Plugin;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.JSONValue;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLConnection;
-import java.util.Enumeration;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Level;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 /**
  * Check dev.bukkit.org to find updates for a given plugin, and download the
@@ -59,12 +58,13 @@ public class Updater {
     private String versionLink;
     private String versionType;
     private String versionGameVersion;
+    private String versionMd5;
 
     private boolean announce; // Whether to announce file downloads
 
     private URL url; // Connecting to RSS
     private File file; // The plugin's file
-    private Thread thread; // Updater thread
+    private Future<?> task; // Updater task, run on the shared UpdateExecutor
 
     private int id = -1; // Project's Curse ID
     private String apiKey = null; // BukkitDev ServerMods API key
@@ -72,13 +72,12 @@ public class Updater {
     private static final String LINK_VALUE = "downloadUrl"; // Gets remote file's download link
     private static final String TYPE_VALUE = "releaseType"; // Gets remote file's release type
     private static final String VERSION_VALUE = "gameVersion"; // Gets remote file's build version
+    private static final String MD5_VALUE = "md5"; // Gets remote file's MD5 digest
     private static final String QUERY = "/servermods/files?projectIds="; // Path to GET
     private static final String HOST = "https://api.curseforge.com"; // Slugs will be appended to this to get to the project's RSS feed
 
     private static final String USER_AGENT = "Updater (by Gravity)";
-    private static final String delimiter = "^v|[\\s_-]v"; // Used for locating version numbers in file names
     private static final String[] NO_UPDATE_TAG = {"-DEV", "-PRE", "-SNAPSHOT"}; // If the version number contains one of these, don't update.
-    private static final int BYTE_SIZE = 1024; // Used for downloading files
     private final YamlConfiguration config = new YamlConfiguration(); // Config file
     private String updateFolder;// The folder that downloads will be placed in
     private Updater.UpdateResult result = Updater.UpdateResult.SUCCESS; // Used for determining the outcome of the update process
@@ -205,11 +204,7 @@ public class Updater {
         final File updaterFile = new File(pluginFile, "Updater");
         final File updaterConfigFile = new File(updaterFile, "config.yml");
 
-        this.config.options().header("This configuration file affects all plugins using the Updater system (version 2+ - http://forums.bukkit.org/threads/96681/ )" + '\n'
-                + "If you wish to use your API key, read http://wiki.bukkit.org/ServerMods_API and place it below." + '\n'
-                + "Some updating systems will not adhere to the disabled value, but these may be turned off in their plugin's configuration.");
-        this.config.addDefault("api-key", "PUT_API_KEY_HERE");
-        this.config.addDefault("disable", false);
+        UpdateCache.addConfigDefaults(this.config);
 
         if (!updaterFile.exists()) {
             updaterFile.mkdir();
@@ -238,6 +233,8 @@ public class Updater {
             return;
         }
 
+        BandwidthLimiter.configure(this.config);
+
         String key = this.config.getString("api-key");
         if (key.equalsIgnoreCase("PUT_API_KEY_HERE") || key.equals("")) {
             key = null;
@@ -252,8 +249,18 @@ public class Updater {
             this.result = UpdateResult.FAIL_BADID;
         }
 
-        this.thread = new Thread(new UpdateRunnable());
-        this.thread.start();
+        if (UpdateExecutor.isUpdateThread()) {
+            // Already on an update thread, waiting on another task could starve the pool
+            new UpdateRunnable().run();
+        } else {
+            UpdateCache.saveOnDisable(plugin);
+            try {
+                this.task = UpdateExecutor.submit(new UpdateRunnable());
+            } catch (final RejectedExecutionException e) {
+                plugin.getLogger().warning("Too many update checks are waiting, the updater will not run.");
+                this.result = UpdateResult.FAIL_DBO;
+            }
+        }
     }
 
     /**
@@ -263,7 +270,7 @@ public class Updater {
      * @see UpdateResult
      */
     public Updater.UpdateResult getResult() {
-        this.waitForThread();
+        this.waitForTask();
         return this.result;
     }
 
@@ -274,7 +281,7 @@ public class Updater {
      * @see ReleaseType
      */
     public ReleaseType getLatestType() {
-        this.waitForThread();
+        this.waitForTask();
         if (this.versionType != null) {
             for (ReleaseType type : ReleaseType.values()) {
                 if (this.versionType.equals(type.name().toLowerCase())) {
@@ -291,7 +298,7 @@ public class Updater {
      * @return latest version's game version.
      */
     public String getLatestGameVersion() {
-        this.waitForThread();
+        this.waitForTask();
         return this.versionGameVersion;
     }
 
@@ -301,7 +308,7 @@ public class Updater {
      * @return latest version's name.
      */
     public String getLatestName() {
-        this.waitForThread();
+        this.waitForTask();
         return this.versionName;
     }
 
@@ -311,182 +318,70 @@ public class Updater {
      * @return latest version's file link.
      */
     public String getLatestFileLink() {
-        this.waitForThread();
+        this.waitForTask();
         return this.versionLink;
     }
 
     /**
-     * As the result of Updater output depends on the thread's completion, it is
-     * necessary to wait for the thread to finish before allowing anyone to
+     * As the result of Updater output depends on the task's completion, it is
+     * necessary to wait for the task to finish before allowing anyone to
      * check the result.
      */
-    private void waitForThread() {
-        if ((this.thread != null) && this.thread.isAlive()) {
+    private void waitForTask() {
+        if ((this.task != null) && !this.task.isDone()) {
             try {
-                this.thread.join();
+                this.task.get();
             } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
                 plugin.getLogger().log(Level.SEVERE, null, e);
+            } catch (final ExecutionException e) {
+                plugin.getLogger().log(Level.SEVERE, null, e.getCause());
             }
         }
     }
 
     /**
-     * Save an update from dev.bukkit.org into the server's update folder.
+     * Save an update from dev.bukkit.org into the server's update folder. The
+     * download is verified against the MD5 digest published in the file list,
+     * if there is one.
+     * Zipped updates are extracted once downloaded, see {@link TransferPipeline}.
      *
      * @param folder the updates folder location.
      * @param file the name of the file to save it as.
      * @param link the url of the file.
      */
     private void saveFile(File folder, String file, String link) {
-        if (!folder.exists()) {
-            folder.mkdir();
-        }
-        BufferedInputStream in = null;
-        FileOutputStream fout = null;
         try {
-            // Download the file
-            final URL url = new URL(link);
-            final int fileLength = url.openConnection().getContentLength();
-            in = new BufferedInputStream(url.openStream());
-            fout = new FileOutputStream(folder.getAbsolutePath() + File.separator + file);
-
-            final byte[] data = new byte[Updater.BYTE_SIZE];
-            int count;
+            final TransferPipeline pipeline = new TransferPipeline(this.plugin.getDataFolder().getParentFile(), folder);
+            pipeline.setConnections(this.config.getInt("download-connections", 1));
+            pipeline.setExtractWorkers(this.config.getInt("extract-workers", 0));
+            pipeline.setExpectedDigest("MD5", this.versionMd5);
+            if (this.versionMd5 == null) {
+                this.plugin.getLogger().info("No digest is published for " + this.versionName + ", the update will not be verified.");
+            }
             if (this.announce) {
                 this.plugin.getLogger().info("About to download a new update: " + this.versionName);
+                pipeline.setListener(new Download.ProgressListener() {
+                    private int announced = 0; // Last multiple of 10 percent announced
+
+                    @Override
+                    public void progress(long downloaded, long fileLength) {
+                        final int percent = fileLength > 0 ? (int) ((downloaded * 100) / fileLength) : 0;
+                        if (percent / 10 > announced) {
+                            announced = percent / 10;
+                            Updater.this.plugin.getLogger().info("Downloading update: " + percent + "% of " + fileLength + " bytes.");
+                        }
+                    }
+                });
             }
-            long downloaded = 0;
-            while ((count = in.read(data, 0, Updater.BYTE_SIZE)) != -1) {
-                downloaded += count;
-                fout.write(data, 0, count);
-                final int percent = (int) ((downloaded * 100) / fileLength);
-                if (this.announce && ((percent % 10) == 0)) {
-                    this.plugin.getLogger().info("Downloading update: " + percent + "% of " + fileLength + " bytes.");
-                }
-            }
-            //Just a quick check to make sure we didn't leave any files from last time...
-            for (final File xFile : new File(this.plugin.getDataFolder().getParent(), this.updateFolder).listFiles()) {
-                if (xFile.getName().endsWith(".zip")) {
-                    xFile.delete();
-                }
-            }
-            // Check to see if it's a zip file, if it is, unzip it.
-            final File dFile = new File(folder.getAbsolutePath() + File.separator + file);
-            if (dFile.getName().endsWith(".zip")) {
-                // Unzip
-                this.unzip(dFile.getCanonicalPath());
-            }
+            pipeline.transfer(link, file);
             if (this.announce) {
                 this.plugin.getLogger().info("Finished updating.");
             }
         } catch (final Exception ex) {
             this.plugin.getLogger().warning("The auto-updater tried to download a new update, but was unsuccessful.");
             this.result = Updater.UpdateResult.FAIL_DOWNLOAD;
-        } finally {
-            try {
-                if (in != null) {
-                    in.close();
-                }
-                if (fout != null) {
-                    fout.close();
-                }
-            } catch (final Exception ex) {
-            }
-        }
-    }
-
-    /**
-     * Part of Zip-File-Extractor, modified by Gravity for use with Updater.
-     *
-     * @param file the location of the file to extract.
-     */
-    private void unzip(String file) {
-        try {
-            final File fSourceZip = new File(file);
-            final String zipPath = file.substring(0, file.length() - 4);
-            ZipFile zipFile = new ZipFile(fSourceZip);
-            Enumeration<? extends ZipEntry> e = zipFile.entries();
-            while (e.hasMoreElements()) {
-                ZipEntry entry = e.nextElement();
-                File destinationFilePath = new File(zipPath, entry.getName());
-                destinationFilePath.getParentFile().mkdirs();
-                if (entry.isDirectory()) {
-                    continue;
-                } else {
-                    final BufferedInputStream bis = new BufferedInputStream(zipFile.getInputStream(entry));
-                    int b;
-                    final byte buffer[] = new byte[Updater.BYTE_SIZE];
-                    final FileOutputStream fos = new FileOutputStream(destinationFilePath);
-                    final BufferedOutputStream bos = new BufferedOutputStream(fos, Updater.BYTE_SIZE);
-                    while ((b = bis.read(buffer, 0, Updater.BYTE_SIZE)) != -1) {
-                        bos.write(buffer, 0, b);
-                    }
-                    bos.flush();
-                    bos.close();
-                    bis.close();
-                    final String name = destinationFilePath.getName();
-                    if (name.endsWith(".jar") && this.pluginFile(name)) {
-                        destinationFilePath.renameTo(new File(this.plugin.getDataFolder().getParent(), this.updateFolder + File.separator + name));
-                    }
-                }
-                entry = null;
-                destinationFilePath = null;
-            }
-            e = null;
-            zipFile.close();
-            zipFile = null;
-
-            // Move any plugin data folders that were included to the right place, Bukkit won't do this for us.
-            for (final File dFile : new File(zipPath).listFiles()) {
-                if (dFile.isDirectory()) {
-                    if (this.pluginFile(dFile.getName())) {
-                        final File oFile = new File(this.plugin.getDataFolder().getParent(), dFile.getName()); // Get current dir
-                        final File[] contents = oFile.listFiles(); // List of existing files in the current dir
-                        for (final File cFile : dFile.listFiles()) // Loop through all the files in the new dir
-                        {
-                            boolean found = false;
-                            for (final File xFile : contents) // Loop through contents to see if it exists
-                            {
-                                if (xFile.getName().equals(cFile.getName())) {
-                                    found = true;
-                                    break;
-                                }
-                            }
-                            if (!found) {
-                                // Move the new file into the current dir
-                                cFile.renameTo(new File(oFile.getCanonicalFile() + File.separator + cFile.getName()));
-                            } else {
-                                // This file already exists, so we don't need it anymore.
-                                cFile.delete();
-                            }
-                        }
-                    }
-                }
-                dFile.delete();
-            }
-            new File(zipPath).delete();
-            fSourceZip.delete();
-        } catch (final IOException e) {
-            this.plugin.getLogger().log(Level.SEVERE, "The auto-updater tried to unzip a new update file, but was unsuccessful.", e);
-            this.result = Updater.UpdateResult.FAIL_DOWNLOAD;
         }
-        new File(file).delete();
-    }
-
-    /**
-     * Check if the name of a jar is one of the plugins currently installed,
-     * used for extracting the correct files out of a zip.
-     *
-     * @param name a name to check for inside the plugins folder.
-     * @return true if a file inside the plugins folder is named this.
-     */
-    private boolean pluginFile(String name) {
-        for (final File file : new File("plugins").listFiles()) {
-            if (file.getName().equals(name)) {
-                return true;
-            }
-        }
-        return false;
     }
 
     /**
@@ -500,9 +395,8 @@ public class Updater {
     private boolean versionCheck(String title) {
         if (this.type != UpdateType.NO_VERSION_CHECK) {
             final String localVersion = this.plugin.getDescription().getVersion();
-            if (title.split(delimiter).length == 2) {
-                final String remoteVersion = title.split(delimiter)[1].split(" ")[0]; // Get the newest file's version number
-
+            final String remoteVersion = Updater.versionOf(title); // Get the newest file's version number
+            if (remoteVersion != null) {
                 if (this.hasTag(localVersion) || !this.shouldUpdate(localVersion, remoteVersion)) {
                     // We already have the latest version, or this build is tagged for no-update
                     this.result = Updater.UpdateResult.NO_UPDATE;
@@ -525,13 +419,15 @@ public class Updater {
      * <b>If you wish to run mathematical versioning checks, edit this
      * method.</b>
      * <p>
-     * With default behavior, Updater will NOT verify that a remote version
-     * available on BukkitDev which is not this version is indeed an "update".
-     * If a version is present on BukkitDev that is not the version that is
-     * currently running, Updater will assume that it is a newer version. This
-     * is because there is no standard versioning scheme, and creating a
-     * calculation that can determine whether a new update is actually an update
-     * is sometimes extremely complicated.
+     * With default behavior, versions holding a number are compared as a
+     * {@link VersionKey}, so "1.10" is newer than "1.9" and "1.2" is newer than
+     * "1.2-beta". For any other version, or versions whose keys tie such as
+     * "1.2.3-b45" and "1.2.3-b46", Updater will NOT verify that a remote
+     * version available on BukkitDev which is not this version is indeed an
+     * "update", and will assume that it is a newer version. This is because
+     * there is no standard versioning scheme, and creating a calculation that
+     * can determine whether a new update is actually an update is sometimes
+     * extremely complicated.
      * </p>
      * <p>
      * Updater will call this method from {@link #versionCheck(String)} before
@@ -543,9 +439,9 @@ public class Updater {
      * </p>
      * <p>
      * Returning a value of <b>false</b> will tell the update process that this
-     * is NOT a new version. Without revision, this method will always consider
-     * a remote version at all different from that of the local version a new
-     * update.
+     * is NOT a new version. Without revision, this method will consider a
+     * remote version without a number at all different from that of the local
+     * version a new update.
      * </p>
      *
      * @param localVersion the current version
@@ -554,9 +450,69 @@ public class Updater {
      * false if not.
      */
     public boolean shouldUpdate(String localVersion, String remoteVersion) {
+        final VersionKey local = VersionKey.parse(localVersion), remote = VersionKey.parse(remoteVersion);
+        if (local != null && remote != null && local.compareTo(remote) != 0) {
+            return remote.isNewerThan(local);
+        }
+        // Keys only hold the leading numbers and a qualifier, "1.2.3-b45" ties with "1.2.3-b46"
         return !localVersion.equalsIgnoreCase(remoteVersion);
     }
 
+    /**
+     * Find the version number in a file's title, which should follow the
+     * format "PluginName vVERSION". The title is split on a "v" that starts
+     * it or follows a space, '_' or '-', and must split in exactly two.
+     *
+     * @param title the file's title
+     * @return the version number, up to the first space, or null if the
+     * title does not follow the format
+     */
+    static String versionOf(String title) {
+        // Scanned by hand, but matches title.split("^v|[\\s_-]v"), which drops trailing empty parts
+        final int length = title.length();
+        int start = -1;
+        for (int i = 0; i < length && start == -1; i++) {
+            final int delimiter = Updater.delimiterAt(title, i);
+            if (delimiter > 0) {
+                start = i + delimiter;
+            }
+        }
+        if (start == -1) {
+            return null;
+        }
+
+        int end = start;
+        while (end < length && Updater.delimiterAt(title, end) == 0) {
+            end++;
+        }
+        if (end == start) {
+            return null;
+        }
+        for (int i = end; i < length; ) { // Only empty parts may follow
+            final int delimiter = Updater.delimiterAt(title, i);
+            if (delimiter == 0) {
+                return null;
+            }
+            i += delimiter;
+        }
+
+        final int space = title.indexOf(' ', start);
+        return title.substring(start, space == -1 || space > end ? end : space);
+    }
+
+    /**
+     * @return the length of the version delimiter at the index, or 0 if there
+     * is none
+     */
+    private static int delimiterAt(String title, int index) {
+        final char c = title.charAt(index);
+        if (index == 0 && c == 'v') {
+            return 1;
+        }
+        final boolean separator = c == '_' || c == '-' || c == ' ' || c == '\t' || c == '\n' || c == '\013' || c == '\f' || c == '\r';
+        return separator && index + 1 < title.length() && title.charAt(index + 1) == 'v' ? 2 : 0;
+    }
+
     /**
      * Evaluate whether the version number is marked showing that it should not
      * be updated by this program.
@@ -575,37 +531,54 @@ public class Updater {
 
     /**
      * Make a connection to the BukkitDev API and request the newest file's
-     * details.
+     * details. Details fetched within the cache TTL are read straight from the
+     * {@link UpdateCache}. Otherwise the request is conditional, so if the file
+     * list has not changed since the last lookup the cached details are reused.
      *
      * @return true if successful.
      */
     private boolean read() {
+        HttpURLConnection conn = null;
         try {
-            final URLConnection conn = this.url.openConnection();
-            conn.setConnectTimeout(5000);
-
-            if (this.apiKey != null) {
-                conn.addRequestProperty("X-API-Key", this.apiKey);
-            }
-            conn.addRequestProperty("User-Agent", Updater.USER_AGENT);
+            final UpdateCache cache = UpdateCache.get(this.plugin);
+            final String key = "curse:" + this.id;
+            Map<String, String> fields = cache.isFresh(key) ? cache.getFields(key) : null;
+            if (fields == null) {
+                // Only opened when needed, opening takes a permit of the host
+                conn = HttpConnections.open(this.url.toString());
+
+                if (this.apiKey != null) {
+                    conn.addRequestProperty("X-API-Key", this.apiKey);
+                }
+                conn.setRequestProperty("User-Agent", Updater.USER_AGENT);
 
-            conn.setDoOutput(true);
+                conn.setDoOutput(true);
 
-            final BufferedReader reader = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-            final String response = reader.readLine();
+                cache.addValidators(key, conn);
 
-            final JSONArray array = (JSONArray) JSONValue.parse(response);
+                fields = cache.getFields(key);
+                if (fields != null && conn.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    cache.touch(key);
+                } else {
+                    // Only the newest file is needed, so just its fields are kept while streaming the list.
+                    // The reader isn't closed, releasing the connection reads the rest so it can be reused
+                    fields = JsonFields.readLast(new InputStreamReader(conn.getInputStream()), Updater.TITLE_VALUE, Updater.LINK_VALUE, Updater.TYPE_VALUE, Updater.VERSION_VALUE, Updater.MD5_VALUE);
+
+                    if (fields == null) {
+                        this.plugin.getLogger().warning("The updater could not find any files for the project id " + this.id);
+                        this.result = UpdateResult.FAIL_BADID;
+                        return false;
+                    }
 
-            if (array.size() == 0) {
-                this.plugin.getLogger().warning("The updater could not find any files for the project id " + this.id);
-                this.result = UpdateResult.FAIL_BADID;
-                return false;
+                    cache.store(key, conn, fields);
+                }
             }
 
-            this.versionName = (String) ((JSONObject) array.get(array.size() - 1)).get(Updater.TITLE_VALUE);
-            this.versionLink = (String) ((JSONObject) array.get(array.size() - 1)).get(Updater.LINK_VALUE);
-            this.versionType = (String) ((JSONObject) array.get(array.size() - 1)).get(Updater.TYPE_VALUE);
-            this.versionGameVersion = (String) ((JSONObject) array.get(array.size() - 1)).get(Updater.VERSION_VALUE);
+            this.versionName = fields.get(Updater.TITLE_VALUE);
+            this.versionLink = fields.get(Updater.LINK_VALUE);
+            this.versionType = fields.get(Updater.TYPE_VALUE);
+            this.versionGameVersion = fields.get(Updater.VERSION_VALUE);
+            this.versionMd5 = fields.get(Updater.MD5_VALUE);
 
             return true;
         } catch (final IOException e) {
@@ -623,6 +596,15 @@ public class Updater {
                 this.plugin.getLogger().log(Level.SEVERE, null, e);
             }
             return false;
+        } catch (final JsonSyntaxException e) {
+            this.plugin.getLogger().severe("The updater received an invalid file list from dev.bukkit.org.");
+            this.plugin.getLogger().log(Level.SEVERE, null, e);
+            this.result = UpdateResult.FAIL_DBO;
+            return false;
+        } finally {
+            if (conn != null) {
+                HttpConnections.release(conn);
+            }
         }
     }
 
@@ -0,0 +1,185 @@
+package mc.alk.battlepluginupdater;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A version string parsed once into what it is compared by: its numeric
+ * components and a pre-release rank. Keys are immutable and cached, so
+ * comparing the same versions again, or sorting a long list of releases,
+ * neither scans the strings nor allocates.
+ * <p>
+ * The numeric components are the first run of dot separated numbers in the
+ * string, wherever it starts, so "v1.2.3", "BattleArena 1.2.3" and
+ * "1.2.3-SNAPSHOT" all have components 1, 2 and 3. The first qualifier found
+ * after them sets the rank, from lowest to highest: "dev" and "snapshot",
+ * "alpha", "beta", "pre" and "rc", and none for a release.
+ * <p>
+ * Keys are ordered by their components, then by their number of components
+ * (1.2.0 is newer than 1.2), then by rank (1.2 is newer than 1.2-beta).
+ */
+public final class VersionKey implements Comparable<VersionKey> {
+
+    private static final int MAX_CACHED = 1024; // The cache is dropped when it grows past this, it only holds versions seen recently
+    private static final String[] QUALIFIERS = {"dev", "snapshot", "alpha", "beta", "pre", "rc"};
+    private static final int[] RANKS = {-4, -4, -3, -2, -1, -1}; // Of the qualifiers above, a release is 0
+    private static final VersionKey UNPARSEABLE = new VersionKey("", new int[0], 0); // Cached for strings without a number
+
+    private static final ConcurrentMap<String, VersionKey> cache = new ConcurrentHashMap<>();
+
+    private final String version;
+    private final int[] components;
+    private final int rank;
+
+    private VersionKey(String version, int[] components, int rank) {
+        this.version = version;
+        this.components = components;
+        this.rank = rank;
+    }
+
+    /**
+     * Get the key of a version.
+     *
+     * @param version the version, such as "1.2.3" or "v1.2-beta"
+     * @return the key, or null if the version is null or holds no number
+     */
+    public static VersionKey parse(String version) {
+        if (version == null) {
+            return null;
+        }
+
+        VersionKey key = cache.get(version);
+        if (key == null) {
+            key = scan(version);
+            if (cache.size() >= MAX_CACHED) {
+                cache.clear();
+            }
+            cache.put(version, key);
+        }
+        return key == UNPARSEABLE ? null : key;
+    }
+
+    private static VersionKey scan(String version) {
+        int length = version.length();
+        int start = 0;
+        while (start < length && !isDigit(version.charAt(start))) {
+            start++;
+        }
+        if (start == length) {
+            return UNPARSEABLE;
+        }
+
+        // Count the components first, so the array is allocated at its final size
+        int count = 1;
+        int end = start;
+        while (true) {
+            while (end < length && isDigit(version.charAt(end))) {
+                end++;
+            }
+            if (end + 1 < length && version.charAt(end) == '.' && isDigit(version.charAt(end + 1))) {
+                count++;
+                end++;
+            } else {
+                break;
+            }
+        }
+
+        int[] components = new int[count];
+        int index = 0;
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            char c = version.charAt(i);
+            if (c == '.') {
+                components[index++] = (int) value;
+                value = 0;
+            } else {
+                value = Math.min(Integer.MAX_VALUE, value * 10 + (c - '0')); // Saturates instead of overflowing
+            }
+        }
+        components[index] = (int) value;
+
+        return new VersionKey(version, components, rank(version, end));
+    }
+
+    /**
+     * Find the first qualifier in the words after the numeric components.
+     */
+    private static int rank(String version, int from) {
+        int length = version.length();
+        int i = from;
+        while (i < length) {
+            if (!Character.isLetter(version.charAt(i))) {
+                i++;
+                continue;
+            }
+
+            int start = i;
+            while (i < length && Character.isLetter(version.charAt(i))) {
+                i++;
+            }
+            for (int q = 0; q < QUALIFIERS.length; q++) {
+                String qualifier = QUALIFIERS[q];
+                if (i - start == qualifier.length() && version.regionMatches(true, start, qualifier, 0, qualifier.length())) {
+                    return RANKS[q];
+                }
+            }
+        }
+        return 0;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Check whether this version is newer than another.
+     *
+     * @param other the other version
+     * @return true if this version is ordered after the other
+     */
+    public boolean isNewerThan(VersionKey other) {
+        return compareTo(other) > 0;
+    }
+
+    @Override
+    public int compareTo(VersionKey other) {
+        int shared = Math.min(components.length, other.components.length);
+        for (int i = 0; i < shared; i++) {
+            if (components[i] != other.components[i]) {
+                return components[i] < other.components[i] ? -1 : 1;
+            }
+        }
+        if (components.length != other.components.length) {
+            return components.length < other.components.length ? -1 : 1;
+        }
+        return Integer.compare(rank, other.rank);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof VersionKey)) {
+            return false;
+        }
+        VersionKey other = (VersionKey) o;
+        return rank == other.rank && Arrays.equals(components, other.components);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(components) + rank;
+    }
+
+    /**
+     * Get the version this key was parsed from.
+     *
+     * @return the version string
+     */
+    @Override
+    public String toString() {
+        return version;
+    }
+}
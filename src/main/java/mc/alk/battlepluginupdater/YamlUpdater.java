@@ -0,0 +1,760 @@
+package mc.alk.battlepluginupdater;
+
+import com.google.common.base.Preconditions;
+
+import mc.euro.version.Version;
+
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.error.Mark;
+import org.yaml.snakeyaml.error.YAMLException;
+import org.yaml.snakeyaml.events.AliasEvent;
+import org.yaml.snakeyaml.events.CollectionEndEvent;
+import org.yaml.snakeyaml.events.CollectionStartEvent;
+import org.yaml.snakeyaml.events.Event;
+import org.yaml.snakeyaml.events.MappingStartEvent;
+import org.yaml.snakeyaml.events.ScalarEvent;
+import org.yaml.snakeyaml.events.StreamEndEvent;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Updates a YAML file by the paths of its keys, as a {@link FileUpdater} does
+ * by matching lines. A key is addressed as Bukkit's configurations do, by the
+ * keys of the sections holding it and its own separated by dots, such as
+ * "arenas.default.teams", so the same key elsewhere in the file is left alone.
+ * <p>
+ * The file is read as a stream of SnakeYAML parser events, which tell where
+ * each key and value starts and ends. Everything else is copied from the file
+ * as it was, so comments, quoting and indentation are kept. The file is read
+ * once, and only the lines of the key being read are kept in memory, along
+ * with one entry for each section holding it. Only deleting or moving a
+ * section keeps the whole section, and moving a key into a section that ends
+ * before the key is read keeps the lines in between until it is.
+ * <p>
+ * Paths are the keys as they are in the file being updated, before any of the
+ * updates, and only keys of sections outside of lists can be addressed. Keys
+ * inside a key that is deleted or moved are left as they were. Keys inside a
+ * flow mapping such as "a: {b: 1}", or under a key that holds a single value
+ * or a list, have no lines of their own: updates to them are skipped with a
+ * warning, and moving a key into one fails the update.
+ */
+public class YamlUpdater {
+
+    private final File file;
+    private final File backupDir;
+
+    private final Version updateVersion;
+    private final Version oldVersion;
+
+    /// Linked, so updates are applied in the order they were first added
+    private final Map<String, String> renames = new LinkedHashMap<>();
+    private final Map<String, String> moves = new LinkedHashMap<>();
+    private final Set<String> deletes = new HashSet<>();
+    private final Map<String, Object> defaults = new LinkedHashMap<>();
+    private final Map<String, Function<String, Object>> transforms = new LinkedHashMap<>();
+
+    public YamlUpdater(File file, File backupDir, Version newVersion, Version oldVersion) {
+        Preconditions.checkArgument(file != null, "File cannot be null");
+        Preconditions.checkArgument(backupDir != null, "Backup folder cannot be null");
+        this.file = file.getAbsoluteFile();
+        this.backupDir = backupDir.getAbsoluteFile();
+        this.updateVersion = newVersion;
+        this.oldVersion = oldVersion;
+    }
+
+    /**
+     * Rename a key, keeping it where it is. If its section already has a key
+     * by the new name, the update fails and the file is left as it was.
+     *
+     * @param path the path of the key
+     * @param name the new name of the key
+     */
+    public void rename(String path, String name) {
+        Preconditions.checkArgument(path != null && !path.isEmpty(), "Path cannot be empty");
+        Preconditions.checkArgument(name != null && !name.isEmpty() && name.indexOf('.') < 0, "Invalid key name: %s", name);
+        renames.put(path, name);
+    }
+
+    /**
+     * Move a key and everything under it to another path, at the end of its
+     * new section. Sections missing on the way are added. If a key is already
+     * at the new path, it is kept and the moved key is dropped.
+     *
+     * @param path the path of the key
+     * @param newPath the path to move it to
+     */
+    public void move(String path, String newPath) {
+        Preconditions.checkArgument(path != null && !path.isEmpty(), "Path cannot be empty");
+        Preconditions.checkArgument(newPath != null && !newPath.isEmpty(), "New path cannot be empty");
+        Preconditions.checkArgument(!newPath.startsWith(path + "."), "Can't move %s inside of itself", path);
+        moves.put(path, newPath);
+    }
+
+    /**
+     * Delete a key and everything under it.
+     *
+     * @param path the path of the key
+     */
+    public void delete(String path) {
+        Preconditions.checkArgument(path != null && !path.isEmpty(), "Path cannot be empty");
+        deletes.add(path);
+    }
+
+    /**
+     * Add a key if the file doesn't have it, at the end of its section.
+     * Sections missing on the way are added.
+     *
+     * @param path the path of the key
+     * @param value the value of the key, anything SnakeYAML can write
+     */
+    public void addDefault(String path, Object value) {
+        Preconditions.checkArgument(path != null && !path.isEmpty(), "Path cannot be empty");
+        defaults.put(path, value);
+    }
+
+    /**
+     * Change the value of a key. Only single values are changed, not
+     * sections or lists.
+     *
+     * @param path the path of the key
+     * @param function gets the value as written in the file without quotes,
+     * or null if it is empty, and returns the new value, anything SnakeYAML
+     * can write on one line
+     */
+    public void transform(String path, Function<String, Object> function) {
+        Preconditions.checkArgument(path != null && !path.isEmpty(), "Path cannot be empty");
+        Preconditions.checkArgument(function != null, "Function cannot be null");
+        transforms.put(path, function);
+    }
+
+    /**
+     * Update the file, keeping a backup of it under its old version.
+     *
+     * @return the version the file was updated to
+     * @throws IOException if the file can't be read, isn't valid YAML, or
+     * can't be written or backed up, in which case it is left as it was
+     */
+    public Version update() throws IOException {
+        System.out.println("[Plugin Updater] updating " + file.getName() + " from " + oldVersion + " to " + updateVersion);
+        System.out.println("[Plugin Updater] old version backup inside of " + backupDir.getAbsolutePath());
+
+        FileUpdater.makeIfNotExists(backupDir);
+        File tempFile = Files.createTempFile(backupDir.toPath(), "temp-", ".yml").toFile();
+        try {
+            try (BufferedReader in = new BufferedReader(new FileReader(file));
+                 BufferedWriter out = new BufferedWriter(new FileWriter(tempFile))) {
+                update(in, out);
+            }
+            Files.copy(file.toPath(), FileUpdater.backupFile(file, backupDir, oldVersion).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            FileUpdater.renameTo(tempFile, file);
+        } finally {
+            FileUpdater.deleteIfExists(tempFile);
+        }
+        return updateVersion;
+    }
+
+    /**
+     * Write the lines of a YAML document with every update applied.
+     *
+     * @param in the document
+     * @param out where the updated document is written
+     * @throws IOException if the document can't be read or written, or isn't
+     * valid YAML
+     */
+    void update(BufferedReader in, Writer out) throws IOException {
+        try {
+            new Run(in, out).run();
+        } catch (YAMLException e) {
+            throw new IOException(file.getName() + " is not valid YAML", e);
+        }
+    }
+
+    private static String join(String parent, String key) {
+        return parent.isEmpty() ? key : parent + "." + key;
+    }
+
+    private static boolean isUnder(String path, String parent) {
+        return parent.isEmpty() || path.startsWith(parent + ".");
+    }
+
+    /** The key right under a section on the way to a path under it. */
+    private static String childOf(String path, String parent) {
+        String rest = parent.isEmpty() ? path : path.substring(parent.length() + 1);
+        int dot = rest.indexOf('.');
+        return dot < 0 ? rest : rest.substring(0, dot);
+    }
+
+    private static String spaces(int n) {
+        char[] chars = new char[n];
+        Arrays.fill(chars, ' ');
+        return new String(chars);
+    }
+
+    /** A collection being read, with the key of it being read if it is a section. */
+    private static final class Frame {
+
+        final boolean mapping;
+        final boolean flow;
+        final String path; // Null if its keys can't be addressed
+        final Set<String> present = new HashSet<>(); // Keys on the way to a key to add
+        final Set<String> names = new HashSet<>(); // Keys as they are written, to catch a rename onto a sibling
+        final Set<String> renamed = new HashSet<>(); // New names among them
+        boolean expectKey = true;
+        String entry; // Path of the key being read
+        int indent = -1; // Of its keys
+        int lastLine = -1; // Last line of anything read in it
+
+        Frame(boolean mapping, boolean flow, String path) {
+            this.mapping = mapping;
+            this.flow = flow;
+            this.path = path;
+        }
+    }
+
+    /** A key being moved, as it is read, dropped or written in its new place. */
+    private static final class Move {
+
+        final String path;
+        final String newPath;
+        boolean placed; // Its new section was found
+        boolean missing; // It isn't in the file
+        List<String> lines; // Once it has been read
+        int column; // Of its key
+        int keyEnd;
+
+        Move(String path, String newPath) {
+            this.path = path;
+            this.newPath = newPath;
+        }
+
+        boolean isResolved() {
+            return missing || lines != null;
+        }
+    }
+
+    /** Keys to add at the end of a section. */
+    private static final class Insertion {
+
+        final int depth; // Of the section's keys in their paths
+        final int indent;
+        final List<Map.Entry<String, Object>> keys; // Defaults or moves by their new path
+
+        Insertion(int depth, int indent, List<Map.Entry<String, Object>> keys) {
+            this.depth = depth;
+            this.indent = indent;
+            this.keys = keys;
+        }
+
+        boolean isResolved() {
+            for (Map.Entry<String, Object> key : keys) {
+                if (key.getValue() instanceof Move && !((Move) key.getValue()).isResolved()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * One pass over a document. Lines read by the parser are kept until the
+     * events reach past them, then written out with any change made to them.
+     */
+    private final class Run extends Reader {
+
+        private final BufferedReader in;
+        private final Writer out;
+        private final Yaml flow;
+        private final Yaml quoted;
+        private final Yaml block;
+
+        private final Map<String, Move> moving = new LinkedHashMap<>();
+        private final Set<String> targets = new HashSet<>(); // Paths to add and the sections on their way
+        private final Set<String> added = new HashSet<>();
+
+        private final List<String> lines = new ArrayList<>(); // Read but not yet written, null once removed
+        private int firstLine; // Number of the first of them
+        private String feeding = "";
+        private int fed;
+        private final Deque<Object> held = new ArrayDeque<>(); // Lines and insertions behind an unresolved insertion
+
+        private final Deque<Frame> frames = new ArrayDeque<>();
+        private Frame region; // Holding the key being deleted or moved
+        private int regionStart;
+        private int regionColumn;
+        private int regionKeyEnd;
+        private boolean sawContent;
+
+        Run(BufferedReader in, Writer out) {
+            this.in = in;
+            this.out = out;
+            DumperOptions options = new DumperOptions();
+            options.setDefaultFlowStyle(DumperOptions.FlowStyle.FLOW);
+            options.setWidth(Integer.MAX_VALUE);
+            this.flow = new Yaml(options);
+            options = new DumperOptions();
+            options.setDefaultFlowStyle(DumperOptions.FlowStyle.FLOW);
+            options.setDefaultScalarStyle(DumperOptions.ScalarStyle.DOUBLE_QUOTED);
+            options.setWidth(Integer.MAX_VALUE);
+            this.quoted = new Yaml(options);
+            options = new DumperOptions();
+            options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
+            options.setIndent(2);
+            this.block = new Yaml(options);
+
+            for (Map.Entry<String, String> move : moves.entrySet()) {
+                moving.put(move.getKey(), new Move(move.getKey(), move.getValue()));
+                addTarget(move.getValue());
+            }
+            for (String path : defaults.keySet()) {
+                addTarget(path);
+            }
+        }
+
+        private void addTarget(String path) {
+            for (int dot = path.indexOf('.'); dot >= 0; dot = path.indexOf('.', dot + 1)) {
+                targets.add(path.substring(0, dot));
+            }
+            targets.add(path);
+        }
+
+        void run() throws IOException {
+            for (Event event : new Yaml().parse(this)) {
+                Frame frame = frames.peek();
+                if (event instanceof ScalarEvent || event instanceof AliasEvent) {
+                    if (event instanceof AliasEvent || !((ScalarEvent) event).getValue().isEmpty()) {
+                        sawContent = true;
+                    }
+                    if (frame != null && frame.mapping && frame.expectKey && event instanceof ScalarEvent) {
+                        key(frame, (ScalarEvent) event);
+                    } else {
+                        if (frame != null && frame.mapping && frame.entry != null && region == null) {
+                            unaddressable(frame.entry, "holds a single value", false);
+                        }
+                        int last = lastLine(event);
+                        if (event instanceof ScalarEvent && frame != null && frame.mapping && frame.entry != null
+                                && region == null) {
+                            Function<String, Object> function = transforms.get(frame.entry);
+                            if (function != null) {
+                                last = transform((ScalarEvent) event, function);
+                            }
+                        }
+                        value(frame, last);
+                    }
+                } else if (event instanceof CollectionStartEvent) {
+                    sawContent = true;
+                    Mark start = event.getStartMark();
+                    String line = line(start.getLine());
+                    boolean isFlow = line != null && start.getColumn() < line.length()
+                            && "[{".indexOf(line.charAt(start.getColumn())) >= 0;
+                    String path = null;
+                    if (event instanceof MappingStartEvent && !isFlow) {
+                        if (frame == null) {
+                            path = "";
+                        } else if (frame.mapping && !frame.expectKey) {
+                            path = frame.entry;
+                        }
+                    } else if (frame != null && frame.mapping && frame.entry != null && region == null) {
+                        unaddressable(frame.entry, event instanceof MappingStartEvent ? "is a flow mapping" : "is a list", true);
+                    }
+                    frames.push(new Frame(event instanceof MappingStartEvent, isFlow, path));
+                } else if (event instanceof CollectionEndEvent) {
+                    frames.pop();
+                    if (frame.path != null) {
+                        close(frame);
+                    }
+                    value(frames.peek(), frame.flow || frame.lastLine < 0 ? lastLine(event) : frame.lastLine);
+                } else if (event instanceof StreamEndEvent) {
+                    end();
+                }
+            }
+        }
+
+        private void key(Frame frame, ScalarEvent event) throws IOException {
+            int line = event.getStartMark().getLine();
+            frame.lastLine = Math.max(frame.lastLine, lastLine(event));
+            frame.expectKey = false;
+            frame.entry = null;
+            if (region != null) {
+                if (moving.get(region.entry) == null) {
+                    discardBefore(line); // Nothing read since the deleted key is kept
+                }
+                return;
+            }
+            writeBefore(line);
+            if (frame.path == null) {
+                return;
+            }
+
+            String key = event.getValue();
+            String path = join(frame.path, key);
+            frame.entry = path;
+            if (frame.indent < 0) {
+                frame.indent = event.getStartMark().getColumn();
+            }
+            if (targets.contains(path)) {
+                frame.present.add(key);
+            }
+            if (deletes.contains(path) || moving.containsKey(path)) {
+                region = frame;
+                regionStart = line;
+                regionColumn = event.getStartMark().getColumn();
+                regionKeyEnd = event.getEndMark().getColumn();
+                return;
+            }
+
+            String name = renames.get(path);
+            String written = name != null ? name : key;
+            if (!frame.names.add(written) && (name != null || frame.renamed.contains(written))) {
+                throw new IOException("Can't rename a key to " + join(frame.path, written) + " in " + file.getName()
+                        + ", the key is already there");
+            }
+            if (name != null) {
+                frame.renamed.add(name);
+                String text = line(line);
+                set(line, text.substring(0, event.getStartMark().getColumn()) + inline(name)
+                        + text.substring(event.getEndMark().getColumn()));
+                if (targets.contains(join(frame.path, name))) {
+                    frame.present.add(name);
+                }
+            }
+        }
+
+        /**
+         * Give up on the updates under a key whose value has no keys of its
+         * own lines. Keys that were to be moved there are left where they are,
+         * unless they have been read already.
+         */
+        private void unaddressable(String parent, String reason, boolean collection) throws IOException {
+            for (Iterator<Move> it = moving.values().iterator(); it.hasNext(); ) {
+                Move move = it.next();
+                if (move.isResolved()) {
+                    if (move.lines == null || !isUnder(move.newPath, parent)) {
+                        continue;
+                    }
+                    throw new IOException("Can't move " + move.path + " to " + move.newPath + " in " + file.getName()
+                            + ", " + parent + " " + reason);
+                }
+                if (isUnder(move.path, parent)) {
+                    skipped(move.path, "is not moved, " + parent + " " + reason);
+                } else if (isUnder(move.newPath, parent)) {
+                    skipped(move.path, "is not moved to " + move.newPath + ", " + parent + " " + reason);
+                    it.remove();
+                }
+            }
+            for (Set<String> paths : Arrays.asList(renames.keySet(), deletes, transforms.keySet(), defaults.keySet())) {
+                for (String path : paths) {
+                    if (isUnder(path, parent)) {
+                        skipped(path, "is not updated, " + parent + " " + reason);
+                    }
+                }
+            }
+            if (collection && transforms.containsKey(parent)) {
+                skipped(parent, "is not transformed, it " + reason);
+            }
+        }
+
+        private void skipped(String path, String why) {
+            System.out.println("[Plugin Updater] " + file.getName() + ": " + path + " " + why);
+        }
+
+        /** Replace a value by what a function makes of it, returning the last line of the new value. */
+        private int transform(ScalarEvent event, Function<String, Object> function) {
+            Mark start = event.getStartMark();
+            Mark end = event.getEndMark();
+            boolean empty = start.getLine() == end.getLine() && start.getColumn() == end.getColumn();
+            String text = inline(function.apply(empty ? null : event.getValue()));
+
+            int last = lastLine(event);
+            String first = line(start.getLine());
+            int endColumn = last == end.getLine() ? end.getColumn() : line(last).length();
+            String suffix = line(last).substring(Math.min(endColumn, line(last).length()));
+            set(start.getLine(), first.substring(0, start.getColumn()) + (empty ? " " : "") + text + suffix);
+            for (int i = start.getLine() + 1; i <= last; i++) {
+                set(i, null);
+            }
+            return start.getLine();
+        }
+
+        /** Called once each value, or a complex key, has been read. */
+        private void value(Frame frame, int last) throws IOException {
+            if (frame == null) {
+                return;
+            }
+            frame.lastLine = Math.max(frame.lastLine, last);
+            if (!frame.mapping) {
+                return;
+            }
+            if (frame.expectKey) { // A complex key, its value isn't addressable
+                frame.expectKey = false;
+                frame.entry = null;
+                return;
+            }
+            if (region == frame) {
+                Move move = moving.get(frame.entry);
+                if (move != null) {
+                    move.lines = take(regionStart, last);
+                    move.column = regionColumn;
+                    move.keyEnd = regionKeyEnd;
+                    drain();
+                } else {
+                    discardBefore(last + 1);
+                }
+                region = null;
+            }
+            frame.expectKey = true;
+            frame.entry = null;
+        }
+
+        /** Add the keys missing at the end of a section that has been read. */
+        private void close(Frame frame) throws IOException {
+            boolean resolved = false;
+            for (Move move : moving.values()) {
+                if (move.lines == null && !move.missing && isUnder(move.path, frame.path)) {
+                    move.missing = true; // Its section has been read, it can't come anymore
+                    resolved = true;
+                }
+            }
+            if (resolved) {
+                drain();
+            }
+            if (region != null) {
+                return;
+            }
+
+            List<Map.Entry<String, Object>> keys = new ArrayList<>();
+            for (Map.Entry<String, Object> entry : defaults.entrySet()) {
+                String path = entry.getKey();
+                if (isUnder(path, frame.path) && !frame.present.contains(childOf(path, frame.path)) && added.add(path)) {
+                    keys.add(entry);
+                }
+            }
+            for (Move move : moving.values()) {
+                if (!move.placed && !move.missing && isUnder(move.newPath, frame.path)
+                        && !frame.present.contains(childOf(move.newPath, frame.path))) {
+                    move.placed = true;
+                    keys.add(new AbstractMap.SimpleEntry<String, Object>(move.newPath, move));
+                }
+            }
+            if (keys.isEmpty()) {
+                return;
+            }
+            int depth = frame.path.isEmpty() ? 0 : frame.path.split("\\.").length;
+            writeBefore(frame.lastLine + 1);
+            insert(new Insertion(depth, Math.max(frame.indent, 0), keys));
+        }
+
+        private void end() throws IOException {
+            writeBefore(Integer.MAX_VALUE);
+            for (Move move : moving.values()) {
+                if (!move.isResolved()) {
+                    move.missing = true;
+                }
+            }
+            if (!sawContent) { // Nothing but comments, add everything at the top level
+                Frame root = new Frame(true, false, "");
+                root.lastLine = Integer.MAX_VALUE - 1;
+                close(root);
+            }
+            drain();
+        }
+
+        private int lastLine(Event event) {
+            Mark start = event.getStartMark();
+            Mark end = event.getEndMark();
+            // A block scalar ends at the start of the line after it
+            return end.getColumn() == 0 && end.getLine() > start.getLine() ? end.getLine() - 1 : end.getLine();
+        }
+
+        private String inline(Object value) {
+            String text = strip(flow.dump(value));
+            return text.indexOf('\n') < 0 ? text : strip(quoted.dump(value));
+        }
+
+        private String strip(String dumped) {
+            return dumped.endsWith("\n") ? dumped.substring(0, dumped.length() - 1) : dumped;
+        }
+
+        private void render(Insertion insertion, List<String> rendered) {
+            render(insertion.keys, insertion.depth, insertion.indent, rendered);
+        }
+
+        private void render(List<Map.Entry<String, Object>> keys, int depth, int indent, List<String> rendered) {
+            Map<String, List<Map.Entry<String, Object>>> byKey = new LinkedHashMap<>();
+            for (Map.Entry<String, Object> key : keys) {
+                if (key.getValue() instanceof Move && ((Move) key.getValue()).missing) {
+                    continue;
+                }
+                String[] parts = key.getKey().split("\\.");
+                List<Map.Entry<String, Object>> under = byKey.get(parts[depth]);
+                if (under == null) {
+                    under = new ArrayList<>();
+                    byKey.put(parts[depth], under);
+                }
+                under.add(key);
+            }
+
+            for (Map.Entry<String, List<Map.Entry<String, Object>>> group : byKey.entrySet()) {
+                Map.Entry<String, Object> leaf = null;
+                for (Map.Entry<String, Object> key : group.getValue()) {
+                    if (key.getKey().split("\\.").length == depth + 1) {
+                        leaf = key;
+                        break;
+                    }
+                }
+                if (leaf == null) {
+                    rendered.add(spaces(indent) + inline(group.getKey()) + ":");
+                    render(group.getValue(), depth + 1, indent + 2, rendered);
+                } else if (leaf.getValue() instanceof Move) {
+                    Move move = (Move) leaf.getValue();
+                    rendered.add(spaces(indent) + inline(group.getKey()) + move.lines.get(0).substring(move.keyEnd));
+                    for (int i = 1; i < move.lines.size(); i++) {
+                        rendered.add(reindent(move.lines.get(i), indent - move.column));
+                    }
+                } else {
+                    for (String line : block.dump(Collections.singletonMap(group.getKey(), leaf.getValue())).split("\n")) {
+                        rendered.add(spaces(indent) + line);
+                    }
+                }
+            }
+        }
+
+        private String reindent(String line, int by) {
+            if (by >= 0) {
+                return line.isEmpty() ? line : spaces(by) + line;
+            }
+            int strip = 0;
+            while (strip < -by && strip < line.length() && line.charAt(strip) == ' ') {
+                strip++;
+            }
+            return line.substring(strip);
+        }
+
+        /// Lines kept until the events are past them
+
+        private String line(int number) {
+            int index = number - firstLine;
+            return index >= 0 && index < lines.size() ? lines.get(index) : null;
+        }
+
+        private void set(int number, String line) {
+            lines.set(number - firstLine, line);
+        }
+
+        private void writeBefore(int number) throws IOException {
+            int count = Math.min(Math.max(number - firstLine, 0), lines.size());
+            List<String> written = lines.subList(0, count);
+            for (String line : written) {
+                if (line != null) {
+                    write(line);
+                }
+            }
+            written.clear();
+            firstLine += count;
+        }
+
+        private void discardBefore(int number) {
+            int count = Math.min(Math.max(number - firstLine, 0), lines.size());
+            lines.subList(0, count).clear();
+            firstLine += count;
+        }
+
+        private List<String> take(int from, int to) throws IOException {
+            writeBefore(from);
+            int count = Math.min(Math.max(to + 1 - firstLine, 0), lines.size());
+            List<String> taken = new ArrayList<>();
+            for (String line : lines.subList(0, count)) {
+                if (line != null) {
+                    taken.add(line);
+                }
+            }
+            discardBefore(to + 1);
+            return taken;
+        }
+
+        /// Output, held behind insertions of keys that haven't been read yet
+
+        private void write(String line) throws IOException {
+            if (held.isEmpty()) {
+                out.write(line + "\n");
+            } else {
+                held.add(line);
+            }
+        }
+
+        private void insert(Insertion insertion) throws IOException {
+            held.add(insertion);
+            drain();
+        }
+
+        private void drain() throws IOException {
+            while (!held.isEmpty()) {
+                Object next = held.peek();
+                if (next instanceof Insertion) {
+                    Insertion insertion = (Insertion) next;
+                    if (!insertion.isResolved()) {
+                        return;
+                    }
+                    List<String> rendered = new ArrayList<>();
+                    render(insertion, rendered);
+                    held.poll();
+                    for (String line : rendered) {
+                        out.write(line + "\n");
+                    }
+                } else {
+                    held.poll();
+                    out.write(next + "\n");
+                }
+            }
+        }
+
+        /// The parser reads the document a line at a time through here
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            if (fed == feeding.length()) {
+                String line = in.readLine();
+                if (line == null) {
+                    return -1;
+                }
+                if (firstLine + lines.size() == 0 && !line.isEmpty() && line.charAt(0) == '\uFEFF') {
+                    line = line.substring(1);
+                }
+                lines.add(line);
+                feeding = line + "\n";
+                fed = 0;
+            }
+            int count = Math.min(length, feeding.length() - fed);
+            feeding.getChars(fed, fed + count, buffer, offset);
+            fed += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package mc.alk.battlepluginupdater.checker;
+
+import mc.alk.battlepluginupdater.HttpConnections;
+import mc.alk.battlepluginupdater.UpdateCache;
+import mc.alk.battlepluginupdater.UpdateExecutor;
+import mc.alk.battlepluginupdater.checker.GitHubUpdateChecker.UpdateResult;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.plugin.Plugin;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Looks up the latest release of many GitHub repositories in a single request,
+ * instead of one REST request (and one unit of rate limit) per repository.
+ * <p>
+ * Batching needs a token, as GitHub's GraphQL API does not take anonymous
+ * requests. Once one is set, every {@link GitHubUpdateChecker#requestUpdateCheck()}
+ * joins a pending batch. The batch is sent on the first server tick after the
+ * first request joined it, so the checks of every plugin enabled at startup go
+ * out together. Should that tick never come, as the plugin that scheduled it
+ * was disabled first, the batch is sent after {@value #MAX_WAIT_SECONDS}
+ * seconds by the {@link UpdateExecutor} instead. Each repository is an aliased field of the same query, and its
+ * tag, prerelease flag and jar asset are fanned back out to its own checker's
+ * result and cached like a REST lookup would be.
+ * <p>
+ * Repositories that are fresh in the {@link UpdateCache} are answered without
+ * being sent. Repositories missing from the answer, or a whole batch that
+ * failed, fall back to concurrent REST lookups, so a bad token or an outage of
+ * the GraphQL API never turns into a failed check.
+ */
+public final class GitHubBatchLookup {
+
+    private static final String GRAPHQL_URL = "https://api.github.com/graphql";
+    private static final int MAX_BATCH = 50; // Repositories per query, well within GitHub's node limit
+    private static final long MAX_WAIT_SECONDS = 10; // Before a batch whose tick never came is sent anyway
+    private static final String RELEASE_FIELDS = "latestRelease { tagName isPrerelease releaseAssets(first: 20) { nodes { name downloadUrl } } }";
+
+    private static final Map<GitHubUpdateChecker, CompletableFuture<UpdateResult>> pending = new LinkedHashMap<>();
+    private static boolean scheduled;
+    private static int generation; // Of the pending batch, so a late flush of an earlier one is ignored
+    private static volatile String token;
+
+    private GitHubBatchLookup() {
+    }
+
+    /**
+     * Set the token from the "github-token" value of the updater config.
+     * Batching is disabled if it is empty.
+     *
+     * @param config the updater config
+     */
+    public static void configure(ConfigurationSection config) {
+        setToken(config.getString("github-token", ""));
+    }
+
+    /**
+     * Set the token batched lookups are authorized with. It only needs
+     * read access to public repositories.
+     *
+     * @param token the token, or null to disable batching
+     */
+    public static void setToken(String token) {
+        GitHubBatchLookup.token = (token == null || token.trim().isEmpty()) ? null : token.trim();
+    }
+
+    /**
+     * Check whether lookups are batched.
+     *
+     * @return true if a token is set
+     */
+    public static boolean isEnabled() {
+        return token != null;
+    }
+
+    /**
+     * Add a repository to the pending batch. A repository already waiting is
+     * only looked up once.
+     *
+     * @param checker the checker of the repository
+     * @return a future update result
+     */
+    static synchronized CompletableFuture<UpdateResult> enqueue(GitHubUpdateChecker checker) {
+        CompletableFuture<UpdateResult> future = pending.get(checker);
+        if (future == null) {
+            future = new CompletableFuture<>();
+            pending.put(checker, future);
+            if (!scheduled) {
+                scheduled = true;
+                schedule(checker.getPlugin(), ++generation);
+            }
+        }
+        return future;
+    }
+
+    private static void schedule(Plugin plugin, int generation) {
+        // Bukkit cancels the tick task if the plugin is disabled before it runs, this one always runs
+        UpdateExecutor.schedule(() -> flush(generation), MAX_WAIT_SECONDS, TimeUnit.SECONDS);
+        try {
+            // Tasks scheduled while the server starts only run once every plugin has been enabled
+            plugin.getServer().getScheduler().runTask(plugin, () -> send(generation));
+        } catch (RuntimeException e) {
+            send(generation); // The plugin is not enabled, don't wait for a tick
+        }
+    }
+
+    private static void send(int generation) {
+        try {
+            UpdateExecutor.execute(() -> flush(generation));
+        } catch (RejectedExecutionException e) {
+            // The pool is full, the batch goes out with the timeout instead
+        }
+    }
+
+    private static void flush(int generation) {
+        Map<GitHubUpdateChecker, CompletableFuture<UpdateResult>> batch;
+        synchronized (GitHubBatchLookup.class) {
+            if (!scheduled || generation != GitHubBatchLookup.generation) {
+                return; // Already sent by the tick or the timeout, whichever came first
+            }
+            batch = new LinkedHashMap<>(pending);
+            pending.clear();
+            scheduled = false;
+        }
+
+        try {
+            lookup(batch);
+        } catch (RuntimeException e) {
+            // Don't leave anyone waiting, futures that were already completed keep their result
+            for (CompletableFuture<UpdateResult> future : batch.values()) {
+                future.completeExceptionally(e);
+            }
+            throw e;
+        }
+    }
+
+    private static void lookup(Map<GitHubUpdateChecker, CompletableFuture<UpdateResult>> batch) {
+        List<GitHubUpdateChecker> lookups = new ArrayList<>(batch.size());
+        for (Map.Entry<GitHubUpdateChecker, CompletableFuture<UpdateResult>> e : batch.entrySet()) {
+            GitHubUpdateChecker checker = e.getKey();
+            UpdateCache cache = UpdateCache.get(checker.getPlugin());
+            if (cache.isFresh(checker.getProjectKey())) {
+                complete(e.getValue(), () -> checker.resultFor(cache.getFields(checker.getProjectKey())));
+            } else {
+                lookups.add(checker);
+            }
+        }
+
+        for (int i = 0; i < lookups.size(); i += MAX_BATCH) {
+            List<GitHubUpdateChecker> checkers = lookups.subList(i, Math.min(lookups.size(), i + MAX_BATCH));
+            Map<GitHubUpdateChecker, Map<String, String>> releases;
+            try {
+                String token = GitHubBatchLookup.token;
+                releases = token == null ? Collections.emptyMap() : query(checkers, token);
+            } catch (IOException | RuntimeException e) {
+                releases = Collections.emptyMap(); // Including answers of an unexpected shape, everything falls back to REST
+            }
+
+            for (GitHubUpdateChecker checker : checkers) {
+                CompletableFuture<UpdateResult> future = batch.get(checker);
+                Map<String, String> fields = releases.get(checker);
+                if (fields != null) {
+                    UpdateCache.get(checker.getPlugin()).store(checker.getProjectKey(), fields);
+                    complete(future, () -> checker.resultFor(fields));
+                } else {
+                    UpdateExecutor.supplyAsync(checker::check).whenComplete((result, e) -> {
+                        if (e != null) {
+                            future.completeExceptionally(e);
+                        } else {
+                            future.complete(result);
+                        }
+                    });
+                }
+            }
+        }
+    }
+
+    private static void complete(CompletableFuture<UpdateResult> future, Supplier<UpdateResult> result) {
+        try {
+            future.complete(result.get());
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Send one query for the latest release of every given repository.
+     *
+     * @return the fields of each repository that has a release, as read by
+     * {@link GitHubUpdateChecker#check()} plus the "asset" url if one was found
+     */
+    private static Map<GitHubUpdateChecker, Map<String, String>> query(List<GitHubUpdateChecker> checkers, String token) throws IOException {
+        // Owners and names are passed as variables, so they never have to be escaped into the query
+        StringBuilder query = new StringBuilder("query(");
+        StringBuilder fields = new StringBuilder();
+        JsonObject variables = new JsonObject();
+        for (int i = 0; i < checkers.size(); i++) {
+            GitHubUpdateChecker checker = checkers.get(i);
+            query.append(i == 0 ? "" : ", ").append("$o").append(i).append(": String!, $n").append(i).append(": String!");
+            fields.append(" r").append(i).append(": repository(owner: $o").append(i).append(", name: $n").append(i).append(") { ")
+                    .append(RELEASE_FIELDS).append(" }");
+            variables.addProperty("o" + i, checker.getOwner());
+            variables.addProperty("n" + i, checker.getRepo());
+        }
+        query.append(") {").append(fields).append(" }");
+
+        JsonObject body = new JsonObject();
+        body.addProperty("query", query.toString());
+        body.add("variables", variables);
+        byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+
+        JsonElement root;
+        HttpURLConnection connection = HttpConnections.open(GRAPHQL_URL);
+        try {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(bytes.length);
+            connection.setRequestProperty("Authorization", "bearer " + token);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(bytes);
+            }
+
+            int responseCode = connection.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new IOException("GitHub answered the batched lookup with HTTP " + responseCode);
+            }
+            // The answer only holds a few fields per repository, so it is small enough to parse whole
+            root = new JsonParser().parse(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+        } finally {
+            HttpConnections.release(connection);
+        }
+
+        Map<GitHubUpdateChecker, Map<String, String>> releases = new HashMap<>();
+        JsonObject data = object(root, "data"); // Repositories that could not be resolved are null, and listed in "errors"
+        for (int i = 0; i < checkers.size(); i++) {
+            JsonObject release = object(object(data, "r" + i), "latestRelease");
+            if (release == null || !release.has("tagName") || release.get("tagName").isJsonNull()) {
+                continue;
+            }
+
+            GitHubUpdateChecker checker = checkers.get(i);
+            Map<String, String> found = new HashMap<>();
+            found.put("tag_name", release.get("tagName").getAsString());
+            found.put("prerelease", String.valueOf(release.has("isPrerelease") && release.get("isPrerelease").getAsBoolean()));
+            String asset = asset(object(release, "releaseAssets"), checker.getRepo() + ".jar");
+            if (asset != null) {
+                found.put("asset", asset);
+            }
+            releases.put(checker, found);
+        }
+        return releases;
+    }
+
+    /**
+     * Pick the jar among a release's assets, preferring the one named after
+     * the repository as {@link mc.alk.battlepluginupdater.GitHubUpdater} does.
+     */
+    private static String asset(JsonObject assets, String preferred) {
+        JsonElement nodes = assets == null ? null : assets.get("nodes");
+        if (nodes == null || !nodes.isJsonArray()) {
+            return null;
+        }
+
+        String jar = null;
+        for (JsonElement node : (JsonArray) nodes) {
+            if (!node.isJsonObject()) {
+                continue;
+            }
+            JsonElement name = node.getAsJsonObject().get("name");
+            JsonElement url = node.getAsJsonObject().get("downloadUrl");
+            if (name == null || url == null || name.isJsonNull() || url.isJsonNull() || !name.getAsString().endsWith(".jar")) {
+                continue;
+            }
+            if (name.getAsString().equals(preferred)) {
+                return url.getAsString();
+            } else if (jar == null) {
+                jar = url.getAsString();
+            }
+        }
+        return jar;
+    }
+
+    private static JsonObject object(JsonElement parent, String name) {
+        if (parent == null || !parent.isJsonObject()) {
+            return null;
+        }
+        JsonElement element = parent.getAsJsonObject().get(name);
+        return (element != null && element.isJsonObject()) ? element.getAsJsonObject() : null;
+    }
+}
@@ -1,21 +1,20 @@
 package mc.alk.battlepluginupdater.checker;
 
+import mc.alk.battlepluginupdater.HttpConnections;
+import mc.alk.battlepluginupdater.UpdateCache;
+import mc.alk.battlepluginupdater.UpdateExecutor;
+import mc.alk.battlepluginupdater.VersionKey;
+
 import com.google.common.base.Preconditions;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 import com.google.gson.JsonSyntaxException;
-import org.apache.commons.lang.math.NumberUtils;
 import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.java.JavaPlugin;
 
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * A utility class to assist in checking for updates for plugins uploaded to
@@ -28,36 +27,27 @@ import java.util.regex.Pattern;
  * an REST server which is updated periodically. If the results of {@link #requestUpdateCheck()}
  * are inconsistent with what is published on GitHub, it may be due to GitHub's cache.
  * Results will be updated in due time.
+ * <p>
+ * Each lookup is a conditional request validated against the {@link UpdateCache}, so an unchanged
+ * release costs a 304 response rather than a full one. When a GitHub token is configured, lookups
+ * are batched with those of other repositories instead, see {@link GitHubBatchLookup}.
  *
  * This is a modified version of Choco's {@link SpigotUpdateChecker} to work with
  * GitHub releases - primarly used for the BattlePlugins.
  *
  * @author Parker Hawke - 2008Choco, Redned
  */
-public final class GitHubUpdateChecker {
+public final class GitHubUpdateChecker implements UpdateChecker {
 
     public static final VersionScheme VERSION_SCHEME_DECIMAL = (first, second) -> {
-        String[] firstSplit = splitVersionInfo(first), secondSplit = splitVersionInfo(second);
-        if (firstSplit == null || secondSplit == null) return null;
-
-        for (int i = 0; i < Math.min(firstSplit.length, secondSplit.length); i++) {
-            int currentValue = NumberUtils.toInt(firstSplit[i]), newestValue = NumberUtils.toInt(secondSplit[i]);
-
-            if (newestValue > currentValue) {
-                return second;
-            } else if (newestValue < currentValue) {
-                return first;
-            }
-        }
+        VersionKey firstKey = VersionKey.parse(first), secondKey = VersionKey.parse(second);
+        if (firstKey == null || secondKey == null) return null;
 
-        return (secondSplit.length > firstSplit.length) ? second : first;
+        return secondKey.isNewerThan(firstKey) ? second : first;
     };
 
     private static final String USER_AGENT = "Mozilla/5.0 (Windows NT 5.1; rv:19.0) Gecko/20100101 Firefox/19.0";
     private static final String UPDATE_URL = "https://api.github.com/repos/%s/%s/releases/latest";
-    private static final Pattern DECIMAL_SCHEME_PATTERN = Pattern.compile("\\d+(?:\\.\\d+)*");
-
-    private static GitHubUpdateChecker instance;
 
     private UpdateResult lastResult = null;
 
@@ -75,49 +65,86 @@ public final class GitHubUpdateChecker {
 
     /**
      * Request an update check to GitHub. This request is asynchronous and may not complete
-     * immediately as an HTTP GET request is published to the GitHub API.
+     * immediately as an HTTP GET request is published to the GitHub API. The request is run
+     * on the shared {@link UpdateExecutor}.
+     * <p>
+     * If a GitHub token is set, the check is instead made through a {@link GitHubBatchLookup},
+     * together with the checks requested by other plugins around the same time.
      *
      * @return a future update result
      */
+    @Override
     public CompletableFuture<UpdateResult> requestUpdateCheck() {
-        return CompletableFuture.supplyAsync(() -> {
-            int responseCode = -1;
-            try {
-                URL url = new URL(String.format(UPDATE_URL, owner, repo));
-                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-                connection.addRequestProperty("User-Agent", USER_AGENT);
-
-                InputStreamReader reader = new InputStreamReader(connection.getInputStream());
-                responseCode = connection.getResponseCode();
-
-                JsonElement element = new JsonParser().parse(reader);
-                if (!element.isJsonObject()) {
-                    return new UpdateResult(UpdateReason.INVALID_JSON);
-                }
+        if (GitHubBatchLookup.isEnabled()) {
+            return GitHubBatchLookup.enqueue(this);
+        }
+        return UpdateExecutor.supplyAsync(this::check);
+    }
 
-                reader.close();
-
-                JsonObject versionObject = element.getAsJsonObject();
-                String current = plugin.getDescription().getVersion(), newest = versionObject.get("tag_name").getAsString();
-                String latest = versionScheme.compareVersions(current, newest);
-                boolean prerelease = versionObject.get("prerelease").getAsBoolean();
-
-                if (latest == null) {
-                    return new UpdateResult(UpdateReason.UNSUPPORTED_VERSION_SCHEME);
-                } else if (latest.equals(current)) {
-                    return new UpdateResult(current.equals(newest) ? UpdateReason.UP_TO_DATE : UpdateReason.UNRELEASED_VERSION);
-                } else if (latest.equals(newest) && prerelease) {
-                    return new UpdateResult(UpdateReason.NEW_PRELEASE, latest);
-                } else if (latest.equals(newest))
-                    return new UpdateResult(UpdateReason.NEW_UPDATE, latest);
-            } catch (IOException e) {
-                return new UpdateResult(UpdateReason.COULD_NOT_CONNECT);
-            } catch (JsonSyntaxException e) {
-                return new UpdateResult(UpdateReason.INVALID_JSON);
+    /**
+     * Check this repository on its own through the REST API, blocking until done.
+     *
+     * @return the update result
+     */
+    UpdateResult check() {
+        try {
+            UpdateCache cache = UpdateCache.get(plugin);
+            Map<String, String> fields = cache.isFresh(getProjectKey()) ? cache.getFields(getProjectKey()) : null;
+            if (fields == null) {
+                HttpURLConnection connection = HttpConnections.open(String.format(UPDATE_URL, owner, repo));
+                try {
+                    connection.setRequestProperty("User-Agent", USER_AGENT);
+                    cache.addValidators(getProjectKey(), connection);
+
+                    int responseCode = connection.getResponseCode();
+                    fields = cache.getFields(getProjectKey());
+                    if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && fields != null) {
+                        cache.touch(getProjectKey());
+                    } else {
+                        // Not closed here, releasing the connection reads what's left so it can be reused
+                        fields = JsonFields.readRelease(new InputStreamReader(connection.getInputStream()), repo + ".jar",
+                                "tag_name", "prerelease");
+                        if (fields.get("tag_name") == null) {
+                            return new UpdateResult(UpdateReason.INVALID_JSON);
+                        }
+
+                        cache.store(getProjectKey(), connection, fields);
+                    }
+                } finally {
+                    HttpConnections.release(connection);
+                }
             }
 
-            return new UpdateResult(responseCode == 401 ? UpdateReason.UNAUTHORIZED_QUERY : UpdateReason.UNKNOWN_ERROR);
-        });
+            return resultFor(fields);
+        } catch (IOException e) {
+            return new UpdateResult(UpdateReason.COULD_NOT_CONNECT);
+        } catch (JsonSyntaxException e) {
+            return new UpdateResult(UpdateReason.INVALID_JSON);
+        }
+    }
+
+    /**
+     * Compare the installed version against the latest release, however it was looked up.
+     *
+     * @param fields the "tag_name" and "prerelease" of the latest release, and its "asset" if known
+     * @return the update result
+     */
+    UpdateResult resultFor(Map<String, String> fields) {
+        String current = plugin.getDescription().getVersion(), newest = fields.get("tag_name");
+        String latest = versionScheme.compareVersions(current, newest);
+        boolean prerelease = Boolean.parseBoolean(fields.get("prerelease"));
+
+        if (latest == null) {
+            return new UpdateResult(UpdateReason.UNSUPPORTED_VERSION_SCHEME);
+        } else if (latest.equals(current)) {
+            return new UpdateResult(current.equals(newest) ? UpdateReason.UP_TO_DATE : UpdateReason.UNRELEASED_VERSION);
+        } else if (latest.equals(newest) && prerelease) {
+            return new UpdateResult(UpdateReason.NEW_PRELEASE, latest, fields.get("asset"));
+        } else if (latest.equals(newest)) {
+            return new UpdateResult(UpdateReason.NEW_UPDATE, latest, fields.get("asset"));
+        }
+
+        return new UpdateResult(UpdateReason.UNKNOWN_ERROR);
     }
 
     /**
@@ -130,17 +157,28 @@ public final class GitHubUpdateChecker {
         return lastResult;
     }
 
-    private static String[] splitVersionInfo(String version) {
-        Matcher matcher = DECIMAL_SCHEME_PATTERN.matcher(version);
-        if (!matcher.find()) return null;
+    @Override
+    public Plugin getPlugin() {
+        return plugin;
+    }
+
+    @Override
+    public String getProjectKey() {
+        return projectKey(owner, repo);
+    }
+
+    String getOwner() {
+        return owner;
+    }
 
-        return matcher.group().split("\\.");
+    String getRepo() {
+        return repo;
     }
 
     /**
-     * Initialize this update checker with the specified values and return its instance. If an instance
-     * of UpdateChecker has already been initialized, this method will act similarly to {@link #get()}
-     * (which is recommended after initialization).
+     * Initialize an update checker for the specified repository and return it. Checkers are kept in the
+     * {@link UpdateCheckerRegistry}, so if this repository has already been initialized, the existing
+     * checker is returned (similarly to {@link #get(Plugin)}).
      *
      * @param plugin the plugin for which to check updates. Cannot be null
      * @param owner the owner of the repo. Cannot be null
@@ -155,13 +193,14 @@ public final class GitHubUpdateChecker {
         Preconditions.checkArgument(repo != null, "Repo cannot be null");
         Preconditions.checkArgument(versionScheme != null, "null version schemes are unsupported");
 
-        return (instance == null) ? instance = new GitHubUpdateChecker(plugin, owner, repo, versionScheme) : instance;
+        return UpdateCheckerRegistry.register(projectKey(owner, repo), plugin, GitHubUpdateChecker.class,
+                () -> new GitHubUpdateChecker(plugin, owner, repo, versionScheme));
     }
 
     /**
-     * Initialize this update checker with the specified values and return its instance. If an instance
-     * of UpdateChecker has already been initialized, this method will act similarly to {@link #get()}
-     * (which is recommended after initialization).
+     * Initialize an update checker for the specified repository and return it. Checkers are kept in the
+     * {@link UpdateCheckerRegistry}, so if this repository has already been initialized, the existing
+     * checker is returned (similarly to {@link #get(Plugin)}).
      *
      * @param plugin the plugin for which to check updates. Cannot be null
      * @param owner the owner of the repo. Cannot be null
@@ -174,26 +213,45 @@ public final class GitHubUpdateChecker {
     }
 
     /**
-     * Get the initialized instance of UpdateChecker. If {@link #init(Plugin, String, String)} has not yet been
-     * invoked, this method will throw an exception.
+     * Get the update checker initialized for a plugin. If {@link #init(Plugin, String, String)} has not yet
+     * been invoked for it, this method will throw an exception.
+     *
+     * @param plugin the plugin
+     *
+     * @return the UpdateChecker instance
+     */
+    public static GitHubUpdateChecker get(Plugin plugin) {
+        GitHubUpdateChecker checker = UpdateCheckerRegistry.first(GitHubUpdateChecker.class, plugin);
+        Preconditions.checkState(checker != null, "Instance has not yet been initialized. Be sure #init() has been invoked");
+        return checker;
+    }
+
+    /**
+     * Get the first initialized instance of UpdateChecker. If {@link #init(Plugin, String, String)} has not
+     * yet been invoked, this method will throw an exception.
      *
      * @return the UpdateChecker instance
+     *
+     * @deprecated several plugins may have initialized a checker, use {@link #get(Plugin)}
      */
+    @Deprecated
     public static GitHubUpdateChecker get() {
-        Preconditions.checkState(instance != null, "Instance has not yet been initialized. Be sure #init() has been invoked");
-        return instance;
+        return get(null);
     }
 
     /**
-     * Check whether the UpdateChecker has been initialized or not (if {@link #init(Plugin, String, String)}
+     * Check whether any UpdateChecker has been initialized or not (if {@link #init(Plugin, String, String)}
      * has been invoked) and {@link #get()} is safe to use.
      *
      * @return true if initialized, false otherwise
      */
     public static boolean isInitialized() {
-        return instance != null;
+        return UpdateCheckerRegistry.first(GitHubUpdateChecker.class, null) != null;
     }
 
+    private static String projectKey(String owner, String repo) {
+        return "github:" + owner + "/" + repo;
+    }
 
     /**
      * A functional interface to compare two version Strings with similar version schemes.
@@ -271,24 +329,27 @@ public final class GitHubUpdateChecker {
     /**
      * Represents a result for an update query performed by {@link GitHubUpdateChecker#requestUpdateCheck()}.
      */
-    public final class UpdateResult {
+    public final class UpdateResult implements UpdateChecker.Result {
 
         private final UpdateReason reason;
         private final String newestVersion;
+        private final String assetUrl;
 
         { // An actual use for initializer blocks. This is madness!
             GitHubUpdateChecker.this.lastResult = this;
         }
 
-        private UpdateResult(UpdateReason reason, String newestVersion) {
+        private UpdateResult(UpdateReason reason, String newestVersion, String assetUrl) {
             this.reason = reason;
             this.newestVersion = newestVersion;
+            this.assetUrl = assetUrl;
         }
 
         private UpdateResult(UpdateReason reason) {
             Preconditions.checkArgument(reason != UpdateReason.NEW_UPDATE, "Reasons that require updates must also provide the latest version String");
             this.reason = reason;
             this.newestVersion = plugin.getDescription().getVersion();
+            this.assetUrl = null;
         }
 
         /**
@@ -305,6 +366,7 @@ public final class GitHubUpdateChecker {
          *
          * @return true if requires update, false otherwise
          */
+        @Override
         public boolean requiresUpdate() {
             return reason == UpdateReason.NEW_UPDATE;
         }
@@ -315,10 +377,21 @@ public final class GitHubUpdateChecker {
          *
          * @return the newest version of the plugin
          */
+        @Override
         public String getNewestVersion() {
             return newestVersion;
         }
 
+        /**
+         * Get the download url of the jar attached to the newest release. It is only known when
+         * the release was looked up through a {@link GitHubBatchLookup}.
+         *
+         * @return the url of the jar, or null if unknown
+         */
+        public String getAssetUrl() {
+            return assetUrl;
+        }
+
     }
 
 }
\ No newline at end of file
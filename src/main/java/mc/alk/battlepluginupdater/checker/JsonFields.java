@@ -0,0 +1,198 @@
+package mc.alk.battlepluginupdater.checker;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Picks a handful of fields out of a release feed with a streaming
+ * {@link JsonReader}, instead of building a tree of the whole document. Only
+ * the requested fields are kept, everything else is skipped token by token,
+ * so memory use does not grow with the size of the feed.
+ * <p>
+ * Scalar values are returned as Strings (booleans and numbers included).
+ * Nested objects and arrays are skipped. Malformed documents throw a
+ * {@link JsonSyntaxException}, so they can be told apart from I/O failures.
+ */
+public final class JsonFields {
+
+    private JsonFields() {
+    }
+
+    /**
+     * Read fields from a release whose root is an object, along with the
+     * download url of a jar among its "assets", as "asset". The asset named
+     * {@code preferred} is picked, otherwise the first jar. Reading stops as
+     * soon as every field and the assets have been read.
+     *
+     * @param in the document
+     * @param preferred the name of the jar to prefer
+     * @param names the fields to read
+     * @return the fields found
+     * @throws IOException if the document could not be read
+     */
+    public static Map<String, String> readRelease(Reader in, String preferred, String... names) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        try {
+            expect(reader, JsonToken.BEGIN_OBJECT);
+            Set<String> wanted = new HashSet<>(Arrays.asList(names));
+            Map<String, String> fields = new HashMap<>();
+            boolean assetsRead = false;
+            reader.beginObject();
+            while (reader.hasNext() && !(assetsRead && fields.size() == wanted.size())) {
+                String name = reader.nextName();
+                if (name.equals("assets") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    String asset = readJar(reader, preferred);
+                    if (asset != null) {
+                        fields.put("asset", asset);
+                        wanted.add("asset");
+                    }
+                    assetsRead = true;
+                } else if (wanted.contains(name)) {
+                    fields.put(name, readScalar(reader));
+                } else {
+                    reader.skipValue();
+                }
+            }
+            return fields;
+        } catch (MalformedJsonException | IllegalStateException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    private static String readJar(JsonReader reader, String preferred) throws IOException {
+        Set<String> wanted = new HashSet<>(Arrays.asList("name", "browser_download_url"));
+        String jar = null;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+            Map<String, String> asset = readFields(reader, wanted, false);
+            String name = asset.get("name"), url = asset.get("browser_download_url");
+            if (name == null || url == null || !name.endsWith(".jar")) {
+                continue;
+            }
+            if (name.equals(preferred)) {
+                jar = url;
+                preferred = null; // Found, keep it over any later jar
+            } else if (jar == null) {
+                jar = url;
+            }
+        }
+        reader.endArray();
+        return jar;
+    }
+
+    /**
+     * Read fields from the first object of a document whose root is an array.
+     * Reading stops as soon as every field has been found.
+     *
+     * @param in the document
+     * @param names the fields to read
+     * @return the fields found, or null if the array is empty
+     * @throws IOException if the document could not be read
+     */
+    public static Map<String, String> readFirst(Reader in, String... names) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        try {
+            expect(reader, JsonToken.BEGIN_ARRAY);
+            reader.beginArray();
+            if (!reader.hasNext()) {
+                return null;
+            }
+            expect(reader, JsonToken.BEGIN_OBJECT);
+            return readFields(reader, new HashSet<>(Arrays.asList(names)), true);
+        } catch (MalformedJsonException | IllegalStateException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    /**
+     * Read fields from the last object of a document whose root is an array.
+     * Every element has to be walked, but only the fields of the current one
+     * are held at a time.
+     *
+     * @param in the document
+     * @param names the fields to read
+     * @return the fields found, or null if the array is empty
+     * @throws IOException if the document could not be read
+     */
+    public static Map<String, String> readLast(Reader in, String... names) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        try {
+            expect(reader, JsonToken.BEGIN_ARRAY);
+            Set<String> wanted = new HashSet<>(Arrays.asList(names));
+            Map<String, String> last = null;
+            reader.beginArray();
+            while (reader.hasNext()) {
+                expect(reader, JsonToken.BEGIN_OBJECT);
+                last = readFields(reader, wanted, false);
+            }
+            reader.endArray();
+            return last;
+        } catch (MalformedJsonException | IllegalStateException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    /**
+     * Read the wanted fields of the object at the reader's position.
+     *
+     * @param stopEarly if true, return as soon as every field is found and
+     * leave the rest of the document unread. Otherwise the object is consumed.
+     */
+    private static Map<String, String> readFields(JsonReader reader, Set<String> wanted, boolean stopEarly) throws IOException {
+        Map<String, String> fields = new HashMap<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (!wanted.contains(name)) {
+                reader.skipValue();
+                continue;
+            }
+
+            fields.put(name, readScalar(reader));
+
+            if (stopEarly && fields.size() == wanted.size()) {
+                return fields;
+            }
+        }
+        reader.endObject();
+        return fields;
+    }
+
+    /** Read a scalar as a String, or skip a nested value and return null. */
+    private static String readScalar(JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case BOOLEAN:
+                return String.valueOf(reader.nextBoolean());
+            case STRING:
+            case NUMBER:
+                return reader.nextString();
+            case NULL:
+                reader.nextNull();
+                return null;
+            default:
+                reader.skipValue();
+                return null;
+        }
+    }
+
+    private static void expect(JsonReader reader, JsonToken token) throws IOException {
+        JsonToken actual = reader.peek();
+        if (actual != token) {
+            throw new JsonSyntaxException("Expected " + token + " but was " + actual);
+        }
+    }
+}
@@ -3,18 +3,17 @@ package mc.alk.battlepluginupdater.checker;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+
+import mc.alk.battlepluginupdater.HttpConnections;
+import mc.alk.battlepluginupdater.UpdateCache;
+import mc.alk.battlepluginupdater.UpdateExecutor;
+import mc.alk.battlepluginupdater.VersionKey;
 
 import com.google.common.base.Preconditions;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 import com.google.gson.JsonSyntaxException;
 
-import org.apache.commons.lang.math.NumberUtils;
 import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.java.JavaPlugin;
 
@@ -29,33 +28,23 @@ import org.bukkit.plugin.java.JavaPlugin;
  * an REST server which is updated periodically. If the results of {@link #requestUpdateCheck()}
  * are inconsistent with what is published on SpigotMC, it may be due to SpiGet's cache.
  * Results will be updated in due time.
+ * <p>
+ * Each lookup is a conditional request validated against the {@link UpdateCache}, so an unchanged
+ * resource costs a 304 response rather than a full one.
  *
  * @author Parker Hawke - 2008Choco
  */
-public final class SpigotUpdateChecker {
+public final class SpigotUpdateChecker implements UpdateChecker {
 
     public static final VersionScheme VERSION_SCHEME_DECIMAL = (first, second) -> {
-        String[] firstSplit = splitVersionInfo(first), secondSplit = splitVersionInfo(second);
-        if (firstSplit == null || secondSplit == null) return null;
-
-        for (int i = 0; i < Math.min(firstSplit.length, secondSplit.length); i++) {
-            int currentValue = NumberUtils.toInt(firstSplit[i]), newestValue = NumberUtils.toInt(secondSplit[i]);
-
-            if (newestValue > currentValue) {
-                return second;
-            } else if (newestValue < currentValue) {
-                return first;
-            }
-        }
+        VersionKey firstKey = VersionKey.parse(first), secondKey = VersionKey.parse(second);
+        if (firstKey == null || secondKey == null) return null;
 
-        return (secondSplit.length > firstSplit.length) ? second : first;
+        return secondKey.isNewerThan(firstKey) ? second : first;
     };
 
     private static final String USER_AGENT = "CHOCO-update-checker";
     private static final String UPDATE_URL = "https://api.spiget.org/v2/resources/%d/versions?size=1&sort=-releaseDate";
-    private static final Pattern DECIMAL_SCHEME_PATTERN = Pattern.compile("\\d+(?:\\.\\d+)*");
-
-    private static SpigotUpdateChecker instance;
 
     private UpdateResult lastResult = null;
 
@@ -71,30 +60,43 @@ public final class SpigotUpdateChecker {
 
     /**
      * Request an update check to SpiGet. This request is asynchronous and may not complete
-     * immediately as an HTTP GET request is published to the SpiGet API.
+     * immediately as an HTTP GET request is published to the SpiGet API. The request is run
+     * on the shared {@link UpdateExecutor}.
      *
      * @return a future update result
      */
+    @Override
     public CompletableFuture<UpdateResult> requestUpdateCheck() {
-        return CompletableFuture.supplyAsync(() -> {
+        return UpdateExecutor.supplyAsync(() -> {
             int responseCode = -1;
             try {
-                URL url = new URL(String.format(UPDATE_URL, pluginID));
-                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-                connection.addRequestProperty("User-Agent", USER_AGENT);
-
-                InputStreamReader reader = new InputStreamReader(connection.getInputStream());
-                responseCode = connection.getResponseCode();
-
-                JsonElement element = new JsonParser().parse(reader);
-                if (!element.isJsonArray()) {
-                    return new UpdateResult(UpdateReason.INVALID_JSON);
+                UpdateCache cache = UpdateCache.get(plugin);
+                Map<String, String> fields = cache.isFresh(getProjectKey()) ? cache.getFields(getProjectKey()) : null;
+                if (fields == null) {
+                    HttpURLConnection connection = HttpConnections.open(String.format(UPDATE_URL, pluginID));
+                    try {
+                        connection.setRequestProperty("User-Agent", USER_AGENT);
+                        cache.addValidators(getProjectKey(), connection);
+
+                        responseCode = connection.getResponseCode();
+                        fields = cache.getFields(getProjectKey());
+                        if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && fields != null) {
+                            cache.touch(getProjectKey());
+                        } else {
+                            // Not closed here, releasing the connection reads what's left so it can be reused
+                            fields = JsonFields.readFirst(new InputStreamReader(connection.getInputStream()), "name");
+                            if (fields == null || fields.get("name") == null) {
+                                return new UpdateResult(UpdateReason.INVALID_JSON);
+                            }
+
+                            cache.store(getProjectKey(), connection, fields);
+                        }
+                    } finally {
+                        HttpConnections.release(connection);
+                    }
                 }
 
-                reader.close();
-
-                JsonObject versionObject = element.getAsJsonArray().get(0).getAsJsonObject();
-                String current = plugin.getDescription().getVersion(), newest = versionObject.get("name").getAsString();
+                String current = plugin.getDescription().getVersion(), newest = fields.get("name");
                 String latest = versionScheme.compareVersions(current, newest);
 
                 if (latest == null) {
@@ -124,17 +126,20 @@ public final class SpigotUpdateChecker {
         return lastResult;
     }
 
-    private static String[] splitVersionInfo(String version) {
-        Matcher matcher = DECIMAL_SCHEME_PATTERN.matcher(version);
-        if (!matcher.find()) return null;
+    @Override
+    public Plugin getPlugin() {
+        return plugin;
+    }
 
-        return matcher.group().split("\\.");
+    @Override
+    public String getProjectKey() {
+        return projectKey(pluginID);
     }
 
     /**
-     * Initialize this update checker with the specified values and return its instance. If an instance
-     * of UpdateChecker has already been initialized, this method will act similarly to {@link #get()}
-     * (which is recommended after initialization).
+     * Initialize an update checker for the specified resource and return it. Checkers are kept in the
+     * {@link UpdateCheckerRegistry}, so if this resource has already been initialized, the existing
+     * checker is returned (similarly to {@link #get(Plugin)}).
      *
      * @param plugin the plugin for which to check updates. Cannot be null
      * @param pluginID the ID of the plugin as identified in the SpigotMC resource link. For example,
@@ -149,13 +154,14 @@ public final class SpigotUpdateChecker {
         Preconditions.checkArgument(pluginID > 0, "Plugin ID must be greater than 0");
         Preconditions.checkArgument(versionScheme != null, "null version schemes are unsupported");
 
-        return (instance == null) ? instance = new SpigotUpdateChecker(plugin, pluginID, versionScheme) : instance;
+        return UpdateCheckerRegistry.register(projectKey(pluginID), plugin, SpigotUpdateChecker.class,
+                () -> new SpigotUpdateChecker(plugin, pluginID, versionScheme));
     }
 
     /**
-     * Initialize this update checker with the specified values and return its instance. If an instance
-     * of UpdateChecker has already been initialized, this method will act similarly to {@link #get()}
-     * (which is recommended after initialization).
+     * Initialize an update checker for the specified resource and return it. Checkers are kept in the
+     * {@link UpdateCheckerRegistry}, so if this resource has already been initialized, the existing
+     * checker is returned (similarly to {@link #get(Plugin)}).
      *
      * @param plugin the plugin for which to check updates. Cannot be null
      * @param pluginID the ID of the plugin as identified in the SpigotMC resource link. For example,
@@ -169,26 +175,45 @@ public final class SpigotUpdateChecker {
     }
 
     /**
-     * Get the initialized instance of UpdateChecker. If {@link #init(Plugin, int)} has not yet been
+     * Get the update checker initialized for a plugin. If {@link #init(Plugin, int)} has not yet been
+     * invoked for it, this method will throw an exception.
+     *
+     * @param plugin the plugin
+     *
+     * @return the UpdateChecker instance
+     */
+    public static SpigotUpdateChecker get(Plugin plugin) {
+        SpigotUpdateChecker checker = UpdateCheckerRegistry.first(SpigotUpdateChecker.class, plugin);
+        Preconditions.checkState(checker != null, "Instance has not yet been initialized. Be sure #init() has been invoked");
+        return checker;
+    }
+
+    /**
+     * Get the first initialized instance of UpdateChecker. If {@link #init(Plugin, int)} has not yet been
      * invoked, this method will throw an exception.
      *
      * @return the UpdateChecker instance
+     *
+     * @deprecated several plugins may have initialized a checker, use {@link #get(Plugin)}
      */
+    @Deprecated
     public static SpigotUpdateChecker get() {
-        Preconditions.checkState(instance != null, "Instance has not yet been initialized. Be sure #init() has been invoked");
-        return instance;
+        return get(null);
     }
 
     /**
-     * Check whether the UpdateChecker has been initialized or not (if {@link #init(Plugin, int)}
+     * Check whether any UpdateChecker has been initialized or not (if {@link #init(Plugin, int)}
      * has been invoked) and {@link #get()} is safe to use.
      *
      * @return true if initialized, false otherwise
      */
     public static boolean isInitialized() {
-        return instance != null;
+        return UpdateCheckerRegistry.first(SpigotUpdateChecker.class, null) != null;
     }
 
+    private static String projectKey(int pluginID) {
+        return "spigot:" + pluginID;
+    }
 
     /**
      * A functional interface to compare two version Strings with similar version schemes.
@@ -261,7 +286,7 @@ public final class SpigotUpdateChecker {
     /**
      * Represents a result for an update query performed by {@link SpigotUpdateChecker#requestUpdateCheck()}.
      */
-    public final class UpdateResult {
+    public final class UpdateResult implements UpdateChecker.Result {
 
         private final UpdateReason reason;
         private final String newestVersion;
@@ -295,6 +320,7 @@ public final class SpigotUpdateChecker {
          *
          * @return true if requires update, false otherwise
          */
+        @Override
         public boolean requiresUpdate() {
             return reason == UpdateReason.NEW_UPDATE;
         }
@@ -305,6 +331,7 @@ public final class SpigotUpdateChecker {
          *
          * @return the newest version of the plugin
          */
+        @Override
         public String getNewestVersion() {
             return newestVersion;
         }
@@ -0,0 +1,58 @@
+package mc.alk.battlepluginupdater.checker;
+
+import org.bukkit.plugin.Plugin;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A source of update checks for a single project, such as a GitHub repository
+ * or a SpigotMC resource. Checkers are held by the {@link UpdateCheckerRegistry}
+ * so that any number of plugins can check for updates side by side.
+ */
+public interface UpdateChecker {
+
+    /**
+     * Get the plugin this checker checks updates for.
+     *
+     * @return the plugin
+     */
+    Plugin getPlugin();
+
+    /**
+     * Get the key identifying the checked project, made up of its source and
+     * project id (for example "github:BattlePlugins/BattleArena" or "spigot:12038").
+     *
+     * @return the project key
+     */
+    String getProjectKey();
+
+    /**
+     * Request an update check. This request is asynchronous and may not
+     * complete immediately.
+     *
+     * @return a future update result
+     */
+    CompletableFuture<? extends Result> requestUpdateCheck();
+
+    /**
+     * The source independent part of an update result.
+     */
+    interface Result {
+
+        /**
+         * Check whether or not this result requires the user to update.
+         *
+         * @return true if requires update, false otherwise
+         */
+        boolean requiresUpdate();
+
+        /**
+         * Get the latest version of the plugin.
+         *
+         * @return the newest version of the plugin
+         */
+        String getNewestVersion();
+
+    }
+
+}
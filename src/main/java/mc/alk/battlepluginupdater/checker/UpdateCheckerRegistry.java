@@ -0,0 +1,160 @@
+package mc.alk.battlepluginupdater.checker;
+
+import com.google.common.base.Preconditions;
+import org.bukkit.plugin.Plugin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Holds the update checkers of every plugin that uses this library, keyed by
+ * {@link UpdateChecker#getProjectKey() project key}. Several plugins sharing a
+ * shaded copy each get their own checker instead of the first plugin's.
+ * <p>
+ * {@link #checkAll()} checks every registered project in one parallel pass.
+ * <p>
+ * A plugin's checkers are dropped when it is disabled, if it uses the
+ * {@link mc.alk.battlepluginupdater.UpdateCache}. Either way, a checker whose
+ * plugin is no longer enabled is replaced when a new instance of a plugin
+ * registers the same project, such as after a reload.
+ */
+public final class UpdateCheckerRegistry {
+
+    private static final Map<String, UpdateChecker> checkers = new LinkedHashMap<>();
+
+    private UpdateCheckerRegistry() {
+    }
+
+    /**
+     * Register a checker. If a checker is already registered for the same
+     * project by a plugin that is still enabled, the existing checker is kept
+     * and returned.
+     *
+     * @param checker the checker to register. Cannot be null
+     * @param <T> the type of checker
+     * @return the registered checker for the project
+     */
+    public static <T extends UpdateChecker> T register(T checker) {
+        Preconditions.checkArgument(checker != null, "Checker cannot be null");
+        return register(checker.getProjectKey(), checker.getPlugin(), checker.getClass(), () -> checker);
+    }
+
+    /**
+     * Get the checker registered for a project, or register the supplied one.
+     *
+     * @param key the project key
+     * @param plugin the plugin registering it
+     * @param type the expected type of checker
+     * @param supplier creates the checker if none is registered
+     * @param <T> the type of checker
+     * @return the registered checker for the project
+     */
+    @SuppressWarnings("unchecked")
+    static synchronized <T extends UpdateChecker> T register(String key, Plugin plugin, Class<?> type, Supplier<T> supplier) {
+        UpdateChecker checker = checkers.get(key);
+        if (checker != null && checker.getPlugin() != plugin && !checker.getPlugin().isEnabled()) {
+            checkers.remove(key); // Left behind by an instance that was disabled, such as before a reload
+            checker = null;
+        }
+        if (checker == null) {
+            checker = supplier.get();
+            checkers.put(key, checker);
+        }
+
+        Preconditions.checkState(type.isInstance(checker), "Project " + key + " is already registered to a " + checker.getClass().getSimpleName());
+        return (T) checker;
+    }
+
+    /**
+     * Get the checker registered for a project.
+     *
+     * @param key the project key
+     * @return the checker, or null if none is registered
+     */
+    public static synchronized UpdateChecker get(String key) {
+        return checkers.get(key);
+    }
+
+    /**
+     * Get the first registered checker of the given type. Used to keep the old
+     * single instance accessors of the checkers working.
+     *
+     * @param type the type of checker
+     * @param plugin the plugin to match, or null to match any plugin
+     * @param <T> the type of checker
+     * @return the checker, or null if none is registered
+     */
+    static synchronized <T extends UpdateChecker> T first(Class<T> type, Plugin plugin) {
+        for (UpdateChecker checker : checkers.values()) {
+            if (type.isInstance(checker) && (plugin == null || checker.getPlugin() == plugin)) {
+                return type.cast(checker);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get all checkers registered for a plugin.
+     *
+     * @param plugin the plugin
+     * @return the plugin's checkers, in registration order
+     */
+    public static synchronized List<UpdateChecker> getCheckers(Plugin plugin) {
+        List<UpdateChecker> list = new ArrayList<>();
+        for (UpdateChecker checker : checkers.values()) {
+            if (checker.getPlugin() == plugin) {
+                list.add(checker);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Get all registered checkers.
+     *
+     * @return every checker, in registration order
+     */
+    public static synchronized List<UpdateChecker> getCheckers() {
+        return new ArrayList<>(checkers.values());
+    }
+
+    /**
+     * Remove every checker registered for a plugin, usually when it is disabled.
+     *
+     * @param plugin the plugin
+     */
+    public static synchronized void unregister(Plugin plugin) {
+        checkers.values().removeIf(checker -> checker.getPlugin() == plugin);
+    }
+
+    /**
+     * Check every registered project for updates at once. The checks run
+     * concurrently and the returned future completes once all of them have.
+     * A check that fails unexpectedly maps to a null result rather than failing
+     * the others. GitHub repositories are looked up in a single request when a
+     * token is set, see {@link GitHubBatchLookup}.
+     *
+     * @return a future map of project key to result, in registration order
+     */
+    public static CompletableFuture<Map<String, UpdateChecker.Result>> checkAll() {
+        List<UpdateChecker> list = getCheckers();
+        List<CompletableFuture<? extends UpdateChecker.Result>> futures = new ArrayList<>(list.size());
+        for (UpdateChecker checker : list) {
+            futures.add(checker.requestUpdateCheck().exceptionally(e -> null));
+        }
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            Map<String, UpdateChecker.Result> results = new LinkedHashMap<>();
+            for (int i = 0; i < list.size(); i++) {
+                results.put(list.get(i).getProjectKey(), futures.get(i).join());
+            }
+            return Collections.unmodifiableMap(results);
+        });
+    }
+
+}
@@ -0,0 +1,127 @@
+package mc.alk.battlepluginupdater.download;
+
+import com.google.common.base.Preconditions;
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket shared by every download in this JVM, so that updates take a
+ * predictable slice of the server's bandwidth no matter how many plugins
+ * download at once.
+ * <p>
+ * The bucket fills at the configured rate and holds at most one second's worth
+ * of tokens. Each read from the network takes as many tokens as it returned
+ * bytes. When the bucket runs dry the reader goes into debt and sleeps until
+ * the debt is paid off, so concurrent downloads queue up behind each other and
+ * together never exceed the rate.
+ * <p>
+ * A second rate may be set for off-peak hours, for example to lift the cap at
+ * night when no players are online. A rate of 0 means unlimited.
+ */
+public final class BandwidthLimiter {
+
+    private static final long HOUR_CHECK_INTERVAL = TimeUnit.MINUTES.toNanos(1); // How often the off-peak window is re-evaluated
+
+    private static long rate; // Bytes per second, 0 is unlimited
+    private static long offPeakRate;
+    private static int offPeakStart; // Hour of the day, inclusive
+    private static int offPeakEnd; // Hour of the day, exclusive. Equal to the start if there are no off-peak hours
+
+    private static long currentRate;
+    private static double tokens;
+    private static long lastRefill = System.nanoTime();
+    private static long lastHourCheck = lastRefill - HOUR_CHECK_INTERVAL;
+
+    private BandwidthLimiter() {
+    }
+
+    /**
+     * Set the rates from the updater config. Rates are read in KiB/s from
+     * "download-rate-limit" and "off-peak-rate-limit", and off-peak hours from
+     * "off-peak-start" and "off-peak-end". Out of range values are clamped
+     * rather than rejected, so a typo in the config can't stop an update.
+     *
+     * @param config the updater config
+     */
+    public static void configure(ConfigurationSection config) {
+        setLimits(Math.max(0, config.getLong("download-rate-limit", 0)) * 1024,
+                Math.max(0, config.getLong("off-peak-rate-limit", 0)) * 1024,
+                Math.floorMod(config.getInt("off-peak-start", 0), 24),
+                Math.floorMod(config.getInt("off-peak-end", 0), 24));
+    }
+
+    /**
+     * Set the rates downloads are limited to.
+     *
+     * @param bytesPerSecond the rate outside of off-peak hours, 0 for unlimited
+     * @param offPeakBytesPerSecond the rate during off-peak hours, 0 for unlimited
+     * @param offPeakStartHour the hour of the day off-peak hours start at, from 0 to 23
+     * @param offPeakEndHour the hour of the day off-peak hours end at, from 0 to 23.
+     * Off-peak hours are disabled if it is the same as the start hour
+     */
+    public static synchronized void setLimits(long bytesPerSecond, long offPeakBytesPerSecond, int offPeakStartHour, int offPeakEndHour) {
+        Preconditions.checkArgument(bytesPerSecond >= 0, "Rate cannot be negative");
+        Preconditions.checkArgument(offPeakBytesPerSecond >= 0, "Off-peak rate cannot be negative");
+        Preconditions.checkArgument(offPeakStartHour >= 0 && offPeakStartHour < 24, "Off-peak start must be an hour from 0 to 23");
+        Preconditions.checkArgument(offPeakEndHour >= 0 && offPeakEndHour < 24, "Off-peak end must be an hour from 0 to 23");
+
+        rate = bytesPerSecond;
+        offPeakRate = offPeakBytesPerSecond;
+        offPeakStart = offPeakStartHour;
+        offPeakEnd = offPeakEndHour;
+        lastHourCheck = System.nanoTime() - HOUR_CHECK_INTERVAL; // Pick up the new rates on the next read
+    }
+
+    /**
+     * Take tokens for bytes that were just read, sleeping if the bucket is in
+     * debt. Returns immediately when downloads are unlimited.
+     *
+     * @param bytes the number of bytes read
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public static void acquire(long bytes) throws InterruptedException {
+        long wait;
+        synchronized (BandwidthLimiter.class) {
+            long now = System.nanoTime();
+            refill(now);
+            if (currentRate == 0) {
+                return;
+            }
+
+            tokens -= bytes;
+            if (tokens >= 0) {
+                return;
+            }
+            wait = (long) (-tokens * TimeUnit.SECONDS.toNanos(1) / currentRate);
+        }
+        TimeUnit.NANOSECONDS.sleep(wait);
+    }
+
+    private static void refill(long now) {
+        if (now - lastHourCheck >= HOUR_CHECK_INTERVAL) {
+            lastHourCheck = now;
+            long next = isOffPeak(Calendar.getInstance().get(Calendar.HOUR_OF_DAY)) ? offPeakRate : rate;
+            if (next != currentRate) {
+                currentRate = next;
+                tokens = Math.min(tokens, next);
+            }
+        }
+
+        if (currentRate > 0) {
+            tokens = Math.min(currentRate, tokens + (double) (now - lastRefill) * currentRate / TimeUnit.SECONDS.toNanos(1));
+        }
+        lastRefill = now;
+    }
+
+    private static boolean isOffPeak(int hour) {
+        if (offPeakStart == offPeakEnd) {
+            return false;
+        }
+        if (offPeakStart < offPeakEnd) {
+            return hour >= offPeakStart && hour < offPeakEnd;
+        }
+        return hour >= offPeakStart || hour < offPeakEnd; // The window wraps past midnight
+    }
+}
@@ -0,0 +1,47 @@
+package mc.alk.battlepluginupdater.download;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A small pool of large direct buffers used to move bytes between the network
+ * and disk. Direct buffers can be written to a {@link java.nio.channels.FileChannel}
+ * without an extra copy, and pooling them means a download allocates nothing
+ * per chunk and little per file.
+ */
+public final class BufferPool {
+
+    public static final int BUFFER_SIZE = 256 * 1024; // Bytes moved per write
+    private static final int MAX_POOLED = 8; // Buffers kept around between downloads
+
+    private static final Queue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+
+    private BufferPool() {
+    }
+
+    /**
+     * Take a cleared buffer from the pool, allocating one if the pool is empty.
+     *
+     * @return a buffer of {@link #BUFFER_SIZE} bytes
+     */
+    public static ByteBuffer acquire() {
+        ByteBuffer buffer = pool.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Return a buffer to the pool. The buffer must not be used afterwards.
+     *
+     * @param buffer a buffer obtained from {@link #acquire()}
+     */
+    public static void release(ByteBuffer buffer) {
+        if (pool.size() < MAX_POOLED) {
+            pool.offer(buffer);
+        }
+    }
+}
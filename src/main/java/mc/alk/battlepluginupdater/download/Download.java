@@ -0,0 +1,758 @@
+package mc.alk.battlepluginupdater.download;
+
+import mc.alk.battlepluginupdater.HttpConnections;
+import mc.alk.battlepluginupdater.UpdateExecutor;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads a file over a single connection. The length and headers are read
+ * from the same response as the body, so every download costs one request and
+ * one TLS handshake. The body is moved into the file through a pooled direct
+ * buffer and a {@link FileChannel}, in writes of {@link BufferPool#BUFFER_SIZE}
+ * bytes, without allocating anything per chunk.
+ * <p>
+ * The body is first written to a "&lt;name&gt;.part" file in a ".staging"
+ * directory next to the target, along with a "&lt;name&gt;.part.meta" sidecar
+ * recording the url, the validators of the response and how many bytes were
+ * received. If the connection drops, the download is retried, and later
+ * downloads of the same url pick up where it stopped with a Range request when
+ * the server supports it. A resume answered with another range than the one
+ * asked for is dropped, and the whole file is fetched again. Once complete, the part is forced to disk and
+ * atomically renamed to the target. The staging directory is on the same
+ * filesystem as the target, so the target's folder only ever shows complete
+ * files, even if the server crashes mid-download. Different targets stage
+ * under different names and can be downloaded concurrently. Downloads of the
+ * same target wait for each other.
+ * <p>
+ * Large files can optionally be fetched over several connections at once (see
+ * {@link #setConnections(int)}). When the server advertises byte ranges, the
+ * file is preallocated and split into ranges that are fetched concurrently and
+ * written in place with positional writes, so no second copy is needed to
+ * assemble it. Ranges are only requested with a validator the server must
+ * honor, a strong ETag or the modification date, and a server that answers
+ * them with something else is downloaded over one connection instead.
+ * <p>
+ * If a published digest is known (see {@link #setExpectedDigest(String, String)}),
+ * it is computed from the same buffers the body is written from, so verifying a
+ * download never reads the file back. A file that does not match is discarded
+ * instead of being moved to its final name. As a digest has to see the bytes
+ * in order, files with an expected digest are not split across connections.
+ * <p>
+ * Every read is counted against the shared {@link BandwidthLimiter}, so all
+ * downloads together stay within the configured rate.
+ */
+public class Download {
+
+    private static final int MAX_ATTEMPTS = 3; // Tries per run before giving up
+    private static final long MIN_SEGMENT_SIZE = 1024 * 1024; // Smaller files aren't worth extra connections
+    private static final String STAGING_FOLDER = ".staging";
+
+    private static final ConcurrentMap<File, Object> locks = new ConcurrentHashMap<>(); // One per target
+
+    private final String link;
+    private final File target;
+    private final File part;
+    private final File meta;
+    private ProgressListener listener;
+    private int connections = 1;
+    private boolean rangesRefused; // A server advertising ranges did not honor them, don't split again
+    private MessageDigest digest;
+    private String expectedDigest;
+    private long length = -1;
+    private final AtomicLong downloaded = new AtomicLong();
+
+    /**
+     * Constructs a new download.
+     *
+     * @param link the url of the file
+     * @param target the file to save it as
+     */
+    public Download(String link, File target) {
+        this.link = link;
+        this.target = target;
+        File staging = new File(target.getAbsoluteFile().getParentFile(), STAGING_FOLDER);
+        this.part = new File(staging, target.getName() + ".part");
+        this.meta = new File(staging, target.getName() + ".part.meta");
+    }
+
+    /**
+     * Set a listener to be told how much of the file has been downloaded.
+     *
+     * @param listener the listener, or null for none
+     */
+    public void setListener(ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Set the number of connections a large file may be split across. Only
+     * servers that accept byte ranges are split, and each connection fetches
+     * at least {@value #MIN_SEGMENT_SIZE} bytes.
+     *
+     * @param connections the maximum number of connections, 1 to disable
+     */
+    public void setConnections(int connections) {
+        this.connections = Math.max(1, connections);
+    }
+
+    /**
+     * Set the digest the downloaded file must match.
+     *
+     * @param algorithm the {@link MessageDigest} algorithm, such as "SHA-256" or "MD5"
+     * @param hex the expected digest as a hexadecimal string
+     * @throws IllegalArgumentException if the algorithm is not available
+     */
+    public void setExpectedDigest(String algorithm, String hex) {
+        try {
+            this.digest = MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unsupported digest algorithm " + algorithm, e);
+        }
+        this.expectedDigest = hex.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Get the length of the file, as reported by the server.
+     *
+     * @return the length in bytes, or -1 if unknown or not yet downloaded
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Download the file, replacing the target if it exists. A partial download
+     * of the same url is resumed, and a dropped connection is retried.
+     *
+     * @return the downloaded file
+     * @throws IOException if the file could not be downloaded completely
+     */
+    public File run() throws IOException {
+        synchronized (locks.computeIfAbsent(target.getAbsoluteFile(), file -> new Object())) {
+            part.getParentFile().mkdirs();
+            return download();
+        }
+    }
+
+    /**
+     * Download the body and hand it to a handler as it arrives, instead of
+     * saving it. Nothing is written by the download itself, so it can't be
+     * resumed or split across connections. The body is still throttled and,
+     * once the handler returns, checked against the expected digest.
+     * Whatever the handler left unread is read and discarded first, so that
+     * the digest covers the whole body.
+     *
+     * @param handler the handler to read the body
+     * @throws IOException if the body could not be read completely, the
+     * handler failed or the body does not match the expected digest
+     */
+    public void stream(BodyHandler handler) throws IOException {
+        if (digest != null) {
+            digest.reset();
+        }
+
+        HttpURLConnection connection = HttpConnections.open(link);
+        boolean complete = false;
+        try {
+            int responseCode = connection.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                complete = true; // Only an error body is left, it is short
+                throw new HttpStatusException("Server returned HTTP response code: " + responseCode + " for URL: " + link);
+            }
+
+            length = connection.getContentLengthLong();
+            downloaded.set(0);
+            InputStream in = new BodyStream(connection.getInputStream()); // Closed by releasing the connection
+            handler.handle(in);
+            byte[] rest = new byte[8192];
+            while (in.read(rest) >= 0) {
+                // Drain the rest of the body
+            }
+            complete = true;
+        } finally {
+            if (complete) {
+                HttpConnections.release(connection);
+            } else {
+                HttpConnections.abort(connection); // The handler or the connection failed midway, don't read on
+            }
+        }
+
+        if (length >= 0 && downloaded.get() != length) {
+            throw new IOException("Download of " + link + " ended after " + downloaded.get() + " of " + length + " bytes");
+        }
+
+        if (digest != null) {
+            String actual = toHex(digest.digest());
+            if (!actual.equals(expectedDigest)) {
+                throw new DigestMismatchException("Download of " + link + " has " + digest.getAlgorithm() + " digest "
+                        + actual + " but " + expectedDigest + " was published", false);
+            }
+        }
+    }
+
+    private File download() throws IOException {
+        IOException failure = null;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            try {
+                transfer();
+                publish();
+                meta.delete();
+                return target;
+            } catch (HttpStatusException e) {
+                throw e; // The server refused, trying again won't help
+            } catch (DigestMismatchException e) {
+                if (!e.resumed) {
+                    throw e; // The whole file was fetched in this attempt, it would not change
+                }
+                failure = e; // The part on disk may have been bad, try again from scratch
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        throw failure;
+    }
+
+    private void transfer() throws IOException {
+        PartInfo info = PartInfo.load(meta);
+        long offset = 0;
+        if (info != null && link.equals(info.url) && info.validator() != null && part.exists()) {
+            offset = Math.min(info.received, part.length());
+        }
+
+        if (digest != null) {
+            digest.reset();
+        }
+
+        HttpURLConnection connection = HttpConnections.open(link);
+        if (offset > 0) {
+            connection.addRequestProperty("Range", "bytes=" + offset + "-");
+            // Only resume if the file did not change since the part was written
+            connection.addRequestProperty("If-Range", info.validator());
+        }
+
+        int responseCode;
+        try {
+            responseCode = connection.getResponseCode();
+        } catch (IOException e) {
+            HttpConnections.release(connection);
+            throw e;
+        }
+        if (responseCode == HttpURLConnection.HTTP_PARTIAL && offset > 0
+                && String.valueOf(connection.getHeaderField("Content-Range")).startsWith("bytes " + offset + "-")) {
+            long remaining = connection.getContentLengthLong();
+            length = remaining < 0 ? -1 : offset + remaining;
+        } else if (responseCode == HttpURLConnection.HTTP_PARTIAL && offset > 0) {
+            HttpConnections.abort(connection); // Not the range that was asked for, not worth reading
+            // The server can't be trusted to resume, fetch the whole file instead
+            part.delete();
+            meta.delete();
+            transfer();
+            return;
+        } else if (responseCode == HttpURLConnection.HTTP_OK) {
+            offset = 0;
+            length = connection.getContentLengthLong();
+            info = new PartInfo();
+            info.url = link;
+            info.etag = connection.getHeaderField("ETag");
+            info.lastModified = connection.getHeaderField("Last-Modified");
+
+            int segments = (int) Math.min(connections, length / MIN_SEGMENT_SIZE);
+            if (segments > 1 && digest == null && !rangesRefused
+                    && "bytes".equalsIgnoreCase(connection.getHeaderField("Accept-Ranges")) && info.validator() != null) {
+                try {
+                    transferSegments(connection, info, segments);
+                    return;
+                } catch (RangeRefusedException e) {
+                    rangesRefused = true; // Fetch it in one piece instead
+                    transfer();
+                    return;
+                }
+            }
+        } else {
+            HttpConnections.release(connection);
+            if (responseCode == 416) {
+                // The part no longer matches the remote file, start over on the next attempt
+                part.delete();
+                meta.delete();
+                throw new IOException("Server rejected the resume of " + link);
+            }
+            throw new HttpStatusException("Server returned HTTP response code: " + responseCode + " for URL: " + link);
+        }
+
+        downloaded.set(offset);
+        info.received = offset;
+        boolean complete = false;
+        Exception failure = null;
+        try (FileChannel out = FileChannel.open(part.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // Not closed here, releasing the connection closes it
+            ReadableByteChannel in = Channels.newChannel(connection.getInputStream());
+            info.save(meta);
+            out.truncate(offset);
+            if (digest != null && offset > 0) {
+                digestExisting(out, offset);
+            }
+            copy(in, out, offset, -1);
+            complete = true; // Read to the end, the connection can be kept alive
+            out.force(true);
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            if (complete) {
+                HttpConnections.release(connection);
+            } else {
+                HttpConnections.abort(connection); // The rest may be most of the file, not worth reading
+            }
+            info.received = downloaded.get();
+            try {
+                info.save(meta);
+            } catch (IOException e) {
+                if (failure == null) {
+                    throw e;
+                }
+                failure.addSuppressed(e); // Report why the transfer failed, not that its progress wasn't saved
+            }
+        }
+
+        if (length >= 0 && downloaded.get() != length) {
+            throw new IOException("Download of " + link + " ended after " + downloaded.get() + " of " + length + " bytes");
+        }
+
+        if (digest != null) {
+            String actual = toHex(digest.digest());
+            if (!actual.equals(expectedDigest)) {
+                part.delete();
+                meta.delete();
+                throw new DigestMismatchException("Download of " + link + " has " + digest.getAlgorithm() + " digest "
+                        + actual + " but " + expectedDigest + " was published", offset > 0);
+            }
+        }
+    }
+
+    /**
+     * Feed the part of the file that was downloaded before a resume into the
+     * digest. Only that prefix is read back, the rest is digested as it arrives.
+     */
+    private void digestExisting(FileChannel channel, long length) throws IOException {
+        ByteBuffer buffer = BufferPool.acquire();
+        try {
+            long position = 0;
+            while (position < length) {
+                buffer.clear();
+                if (length - position < buffer.capacity()) {
+                    buffer.limit((int) (length - position));
+                }
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("Part file of " + link + " is shorter than recorded");
+                }
+                buffer.flip();
+                digest.update(buffer);
+                position += read;
+            }
+        } finally {
+            BufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * Fetch the file in several byte ranges at once. The first range is read
+     * from the already open connection, the others from new connections.
+     * Segmented downloads are not resumed, a failure discards the part file.
+     */
+    private void transferSegments(HttpURLConnection first, PartInfo info, int segments) throws IOException {
+        long segmentSize = (length + segments - 1) / segments;
+        ExecutorService executor = UpdateExecutor.newExecutor(segments - 1, segments);
+        boolean complete = false;
+        downloaded.set(0);
+        meta.delete();
+        try (RandomAccessFile file = new RandomAccessFile(part, "rw")) {
+            file.setLength(length); // Preallocate, each segment writes in place
+            FileChannel out = file.getChannel();
+
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 1; i < segments; i++) {
+                final long start = i * segmentSize;
+                final long end = Math.min(length, start + segmentSize) - 1;
+                futures.add(executor.submit(() -> {
+                    transferRange(out, start, end, info.validator());
+                    return null;
+                }));
+            }
+
+            try (ReadableByteChannel in = Channels.newChannel(first.getInputStream())) {
+                if (copy(in, out, 0, segmentSize) != segmentSize) {
+                    throw new IOException("Download of " + link + " ended early");
+                }
+            } finally {
+                HttpConnections.abort(first); // The rest of this response belongs to other segments
+            }
+
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while downloading " + link, e);
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                }
+            }
+            out.force(true);
+            complete = true;
+        } finally {
+            HttpConnections.abort(first); // In case the segments could not be started
+            executor.shutdownNow();
+            if (!complete) {
+                part.delete();
+            }
+        }
+    }
+
+    /**
+     * Rename the complete part to the target in one step, so the target is
+     * either the old file or the whole new one. Filesystems that can't rename
+     * atomically fall back to a plain replace.
+     */
+    private void publish() throws IOException {
+        try {
+            Files.move(part.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(part.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void transferRange(FileChannel out, long start, long end, String validator) throws IOException {
+        HttpURLConnection connection = HttpConnections.open(link);
+        connection.addRequestProperty("Range", "bytes=" + start + "-" + end);
+        connection.addRequestProperty("If-Range", validator);
+        boolean complete = false;
+        try {
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL
+                    || !String.valueOf(connection.getHeaderField("Content-Range")).startsWith("bytes " + start + "-")) {
+                throw new RangeRefusedException("Server did not return the requested range of " + link);
+            }
+            try (ReadableByteChannel in = Channels.newChannel(connection.getInputStream())) {
+                if (copy(in, out, start, end - start + 1) != end - start + 1) {
+                    throw new IOException("Download of " + link + " ended early");
+                }
+            }
+            complete = true; // Read to the end, the connection can be kept alive
+        } finally {
+            if (complete) {
+                HttpConnections.release(connection);
+            } else {
+                HttpConnections.abort(connection); // The rest may be the whole file, not worth reading
+            }
+        }
+    }
+
+    private void progress(long total) {
+        if (listener != null) {
+            synchronized (listener) {
+                listener.progress(total, length);
+            }
+        }
+    }
+
+    /**
+     * Wait for the shared {@link BandwidthLimiter} to allow bytes that were
+     * just read.
+     */
+    private static void throttle(int bytes) throws InterruptedIOException {
+        try {
+            BandwidthLimiter.acquire(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttling download");
+        }
+    }
+
+    /**
+     * Copy from the network into the file at the given position with positional
+     * writes, so several segments can share one channel.
+     *
+     * @param limit the number of bytes to copy, or -1 to copy until the end of the stream
+     * @return the number of bytes copied
+     */
+    private long copy(ReadableByteChannel in, FileChannel out, long position, long limit) throws IOException {
+        ByteBuffer buffer = BufferPool.acquire();
+        try {
+            long copied = 0;
+            boolean eof = false;
+            while (!eof && (limit < 0 || copied < limit)) {
+                // Fill the whole buffer before writing, so disk writes stay large
+                buffer.clear();
+                if (limit >= 0 && limit - copied < buffer.capacity()) {
+                    buffer.limit((int) (limit - copied));
+                }
+                while (buffer.hasRemaining()) {
+                    int read = in.read(buffer);
+                    if (read < 0) {
+                        eof = true;
+                        break;
+                    }
+                    throttle(read);
+                }
+                buffer.flip();
+                int count = buffer.remaining();
+                if (digest != null) {
+                    // Digest the chunk from the same buffer, then rewind it for the write
+                    digest.update(buffer);
+                    buffer.rewind();
+                }
+                while (buffer.hasRemaining()) {
+                    position += out.write(buffer, position);
+                }
+                copied += count;
+                progress(downloaded.addAndGet(count));
+            }
+            return copied;
+        } finally {
+            BufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * Read a digest published next to a file, such as a ".sha256" release
+     * asset. The first whitespace separated token of the body is returned, so
+     * both bare digests and the output of sha256sum are understood.
+     *
+     * @param link the url of the digest
+     * @return the digest as a hexadecimal string, or null if none is published
+     */
+    public static String fetchPublishedDigest(String link) {
+        try {
+            HttpURLConnection connection = HttpConnections.open(link);
+            try {
+                if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                    return null;
+                }
+                BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.US_ASCII));
+                String line = reader.readLine();
+                if (line == null || line.trim().isEmpty()) {
+                    return null;
+                }
+                String hex = line.trim().split("\\s+")[0];
+                return hex.matches("[0-9a-fA-F]+") ? hex : null;
+            } finally {
+                HttpConnections.release(connection);
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = Character.forDigit((bytes[i] >> 4) & 0xF, 16);
+            chars[i * 2 + 1] = Character.forDigit(bytes[i] & 0xF, 16);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Receives progress updates while a file downloads.
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+
+        /**
+         * Called after each chunk of the file is written.
+         *
+         * @param downloaded the number of bytes written so far
+         * @param length the total length of the file, or -1 if unknown
+         */
+        void progress(long downloaded, long length);
+
+    }
+
+    /**
+     * Reads the body of a streamed download.
+     */
+    @FunctionalInterface
+    public interface BodyHandler {
+
+        /**
+         * Called once with the body of the download. The stream is closed
+         * by the download afterwards.
+         *
+         * @param body the body, throttled and digested as it is read
+         * @throws IOException if the body could not be handled
+         */
+        void handle(InputStream body) throws IOException;
+
+    }
+
+    /**
+     * The body of a streamed download. Every read is throttled, digested and
+     * reported to the listener, the same as when saving to a file.
+     */
+    private class BodyStream extends FilterInputStream {
+
+        BodyStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read > 0) {
+                throttle(read);
+                if (digest != null) {
+                    digest.update(b, off, read);
+                }
+                progress(downloaded.addAndGet(read));
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes must still be digested
+            byte[] b = new byte[(int) Math.min(n, 8192)];
+            int read = read(b, 0, b.length);
+            return Math.max(read, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    /**
+     * The server answered with an error status rather than dropping the
+     * connection.
+     */
+    private static class HttpStatusException extends IOException {
+
+        HttpStatusException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * The server advertised byte ranges but answered a range request with
+     * something else, such as the whole file.
+     */
+    private static class RangeRefusedException extends IOException {
+
+        RangeRefusedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * The downloaded file does not match its published digest.
+     */
+    private static class DigestMismatchException extends IOException {
+
+        private final boolean resumed; // Whether part of the file came from an earlier attempt
+
+        DigestMismatchException(String message, boolean resumed) {
+            super(message);
+            this.resumed = resumed;
+        }
+    }
+
+    /**
+     * The contents of a part file's sidecar.
+     */
+    private static class PartInfo {
+
+        private String url;
+        private String etag;
+        private String lastModified;
+        private long received;
+
+        static PartInfo load(File file) {
+            if (!file.exists()) {
+                return null;
+            }
+
+            Properties properties = new Properties();
+            try (InputStream in = new FileInputStream(file)) {
+                properties.load(in);
+            } catch (IOException e) {
+                return null;
+            }
+
+            PartInfo info = new PartInfo();
+            info.url = properties.getProperty("url");
+            info.etag = properties.getProperty("etag");
+            info.lastModified = properties.getProperty("last-modified");
+            try {
+                info.received = Long.parseLong(properties.getProperty("received", "0"));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            return info;
+        }
+
+        /**
+         * Get the value to send in If-Range. A weak ETag never matches a range
+         * request, so the modification date is used instead.
+         *
+         * @return the validator, or null if the response had none that can be used
+         */
+        String validator() {
+            return etag != null && !etag.startsWith("W/") ? etag : lastModified;
+        }
+
+        void save(File file) throws IOException {
+            Properties properties = new Properties();
+            properties.setProperty("url", url);
+            if (etag != null) {
+                properties.setProperty("etag", etag);
+            }
+            if (lastModified != null) {
+                properties.setProperty("last-modified", lastModified);
+            }
+            properties.setProperty("received", String.valueOf(received));
+            try (OutputStream out = new FileOutputStream(file)) {
+                properties.store(out, null);
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package mc.alk.battlepluginupdater.download;
+
+import mc.alk.battlepluginupdater.FolderIndex;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Takes an update from a url to the server's update folder, for every kind of
+ * updater: fetch, verify, extract, stage.
+ * <ul>
+ * <li>The file is fetched by a {@link Download}, through pooled buffers and
+ * the JDK's per-host keep-alive connections, and throttled by the shared
+ * {@link BandwidthLimiter}.</li>
+ * <li>It is verified against the expected digest, if one is set.</li>
+ * <li>Zips are downloaded whole, then extracted by a {@link ZipExtractor}
+ * from their central directory, so only the entries that belong somewhere are
+ * inflated. With a single connection and a single extract worker there is
+ * nothing to parallelize, so the zip is streamed into the extractor instead
+ * and never saved. Jars go to the update folder and resources to the data
+ * folders of installed plugins, as recorded by the plugins folder's
+ * {@link FolderIndex}.</li>
+ * <li>Everything is staged in hidden files and only renamed into place once
+ * the update is complete and verified.</li>
+ * </ul>
+ */
+public class TransferPipeline {
+
+    private final File pluginsFolder;
+    private final File updateFolder;
+    private int connections = 1;
+    private int extractWorkers; // 0 leaves the extractor's default
+    private String digestAlgorithm;
+    private String digest;
+    private Download.ProgressListener listener;
+
+    /**
+     * Constructs a new pipeline.
+     *
+     * @param pluginsFolder the server's plugins folder
+     * @param updateFolder the server's update folder
+     */
+    public TransferPipeline(File pluginsFolder, File updateFolder) {
+        this.pluginsFolder = pluginsFolder;
+        this.updateFolder = updateFolder;
+    }
+
+    /**
+     * Set the number of connections a large file may be split across.
+     *
+     * @param connections the maximum number of connections, 1 to disable
+     * @see Download#setConnections(int)
+     */
+    public void setConnections(int connections) {
+        this.connections = Math.max(1, connections);
+    }
+
+    /**
+     * Set the number of threads a zip may be inflated by at once. This is
+     * independent of the number of connections it is downloaded over. With 1,
+     * and a single connection, zips are extracted as they are downloaded
+     * instead of being saved first.
+     *
+     * @param workers the maximum number of threads, 0 for one per processor
+     * up to a few
+     * @see ZipExtractor#setWorkers(int)
+     */
+    public void setExtractWorkers(int workers) {
+        this.extractWorkers = Math.max(0, workers);
+    }
+
+    /**
+     * Set the digest the downloaded file must match.
+     *
+     * @param algorithm the digest algorithm, such as "SHA-256" or "MD5"
+     * @param hex the expected digest as a hexadecimal string, or null for none
+     * @see Download#setExpectedDigest(String, String)
+     */
+    public void setExpectedDigest(String algorithm, String hex) {
+        this.digestAlgorithm = algorithm;
+        this.digest = hex;
+    }
+
+    /**
+     * Set a listener to be told how much of the file has been downloaded.
+     *
+     * @param listener the listener, or null for none
+     */
+    public void setListener(Download.ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Fetch an update and lay it down in the update folder.
+     *
+     * @param link the url of the file
+     * @param fileName the name to save it as. Names ending in ".zip" are
+     * extracted instead of saved
+     * @return the files that were written
+     * @throws IOException if the update could not be downloaded, verified or
+     * extracted. Nothing is left in place in that case
+     */
+    public List<File> transfer(String link, String fileName) throws IOException {
+        updateFolder.mkdirs();
+        Download download = new Download(link, new File(updateFolder, fileName));
+        download.setConnections(connections);
+        download.setListener(listener);
+        if (digest != null) {
+            download.setExpectedDigest(digestAlgorithm, digest);
+        }
+
+        if (!fileName.endsWith(".zip")) {
+            return Collections.singletonList(download.run());
+        }
+
+        ZipExtractor extractor = new ZipExtractor(pluginsFolder, updateFolder, FolderIndex.get(pluginsFolder)::contains);
+        if (extractWorkers > 0) {
+            extractor.setWorkers(extractWorkers);
+        }
+        try {
+            if (extractWorkers == 1 && connections == 1) {
+                // Nothing to run in parallel, inflate as it arrives instead of saving the zip first
+                download.stream(extractor::extract);
+            } else {
+                // Read from a file, the central directory tells what to skip without inflating it
+                File zip = download.run();
+                try {
+                    extractor.extract(zip);
+                } finally {
+                    zip.delete();
+                }
+            }
+            return extractor.commit();
+        } finally {
+            extractor.discard();
+        }
+    }
+}
@@ -0,0 +1,385 @@
+package mc.alk.battlepluginupdater.download;
+
+import mc.alk.battlepluginupdater.FolderIndex;
+import mc.alk.battlepluginupdater.UpdateExecutor;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Extracts a zipped release, routing each entry straight to where it belongs:
+ * <ul>
+ * <li>jars named like an installed plugin go to the update folder,</li>
+ * <li>files under a top level folder named like an installed plugin's data
+ * folder are merged into that data folder, at any depth. Files the data
+ * folder already has are kept as they are,</li>
+ * <li>everything else is skipped.</li>
+ * </ul>
+ * A zip can either be extracted as it is downloaded, without the zip or a
+ * scratch copy of its contents ever being written to disk, or from a file. A
+ * file is planned from its central directory first, and only the entries that
+ * belong somewhere are inflated. Entries that are skipped are never written,
+ * whichever way the zip is read.
+ * <p>
+ * To merge, the existing tree of a data folder is walked once, the first
+ * time an entry for it is seen, and its paths are kept in a hash map. Each
+ * entry is then checked against the map, so merging takes time linear in the
+ * number of files in the data folder and the zip.
+ * <p>
+ * Each entry is written once, to a hidden file next to its destination, and
+ * the extraction is only made visible by {@link #commit()}, which renames every
+ * file into place. A failed or unverified download is undone with
+ * {@link #discard()}.
+ */
+public class ZipExtractor {
+
+    private static final int MAX_WORKERS = 4; // Threads inflating a zip file by default
+
+    private final File pluginsFolder;
+    private final File updateFolder;
+    private final Predicate<String> installed;
+    private final Map<File, File> staged = new LinkedHashMap<>(); // Destination -> hidden file holding it
+    private final Map<File, Map<String, Boolean>> trees = new HashMap<>(); // Data folder -> existing relative paths, true for folders
+    private int workers = Math.min(MAX_WORKERS, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Constructs a new extractor.
+     *
+     * @param pluginsFolder the server's plugins folder, holding the data folders
+     * @param updateFolder the server's update folder, receiving jars
+     * @param installed checks if a name is a file in the plugins folder, such
+     * as {@link FolderIndex#contains(String)}
+     */
+    public ZipExtractor(File pluginsFolder, File updateFolder, Predicate<String> installed) {
+        this.pluginsFolder = pluginsFolder;
+        this.updateFolder = updateFolder;
+        this.installed = installed;
+    }
+
+    /**
+     * Read a zip from a stream and stage the entries that belong somewhere.
+     * Can be used as a {@link Download.BodyHandler}.
+     *
+     * @param in the zip
+     * @throws IOException if the zip could not be read or an entry not written
+     */
+    public void extract(InputStream in) throws IOException {
+        // ZipInputStream reads in small chunks, buffer them so the network sees large reads
+        ZipInputStream zip = new ZipInputStream(new BufferedInputStream(in, BufferPool.BUFFER_SIZE));
+        ByteBuffer buffer = BufferPool.acquire();
+        try {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                File destination = entry.isDirectory() ? null : destination(entry);
+                if (destination != null) {
+                    write(zip, prepare(destination), buffer);
+                }
+                zip.closeEntry();
+            }
+        } finally {
+            BufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * Read a zip file and stage the entries that belong somewhere. The
+     * destinations are worked out from the central directory before anything
+     * is inflated, so entries that are skipped, or replaced by a later entry
+     * with the same destination, are never decompressed. The entries that are
+     * kept are independent of each other, so they are inflated by up to
+     * {@link #setWorkers(int) workers} threads at once, each with its own
+     * buffer.
+     *
+     * @param file the zip
+     * @throws IOException if the zip could not be read or an entry not written
+     */
+    public void extract(File file) throws IOException {
+        try (ZipFile zip = new ZipFile(file)) {
+            Map<File, ZipEntry> plan = new LinkedHashMap<>();
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                File destination = entry.isDirectory() ? null : destination(entry);
+                if (destination != null) {
+                    plan.remove(destination); // A later entry with the same destination wins
+                    plan.put(destination, entry);
+                }
+            }
+
+            // Largest first, so a big jar doesn't end up alone on one thread at the end
+            List<Map.Entry<File, ZipEntry>> ordered = new ArrayList<>();
+            for (Map.Entry<File, ZipEntry> e : plan.entrySet()) {
+                ordered.add(new AbstractMap.SimpleImmutableEntry<>(prepare(e.getKey()), e.getValue()));
+            }
+            ordered.sort((a, b) -> Long.compare(b.getValue().getSize(), a.getValue().getSize()));
+            Queue<Map.Entry<File, ZipEntry>> pending = new ConcurrentLinkedQueue<>(ordered);
+
+            int threads = Math.min(workers, pending.size());
+            if (threads <= 1) {
+                inflate(zip, pending);
+                return;
+            }
+
+            // The calling thread is one of the workers
+            ExecutorService executor = UpdateExecutor.newExecutor(threads - 1, threads);
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int i = 1; i < threads; i++) {
+                    futures.add(executor.submit(() -> {
+                        inflate(zip, pending);
+                        return null;
+                    }));
+                }
+                inflate(zip, pending);
+
+                for (Future<?> future : futures) {
+                    try {
+                        future.get();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while extracting " + file, e);
+                    } catch (ExecutionException e) {
+                        throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                    }
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Set the number of threads a zip file may be inflated by at once.
+     * Streamed zips are always read by one thread.
+     *
+     * @param workers the maximum number of threads, 1 to disable
+     */
+    public void setWorkers(int workers) {
+        this.workers = Math.max(1, workers);
+    }
+
+    /**
+     * Move every staged file to its destination.
+     *
+     * @return the files that were extracted
+     * @throws IOException if a file could not be moved. Files not yet moved
+     * are discarded
+     */
+    public List<File> commit() throws IOException {
+        List<File> extracted = new ArrayList<>();
+        try {
+            for (Map.Entry<File, File> e : staged.entrySet()) {
+                File destination = e.getKey();
+                try {
+                    Files.move(e.getValue().toPath(), destination.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException ex) {
+                    Files.move(e.getValue().toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                extracted.add(destination);
+            }
+        } finally {
+            discard();
+        }
+        return extracted;
+    }
+
+    /**
+     * Delete every staged file that has not been moved yet.
+     */
+    public void discard() {
+        for (File temp : staged.values()) {
+            temp.delete();
+        }
+        staged.clear();
+    }
+
+    /**
+     * Find where an entry belongs.
+     *
+     * @param entry the entry
+     * @return the destination, or null if the entry should be skipped
+     */
+    private File destination(ZipEntry entry) throws IOException {
+        String[] path = entry.getName().replace('\\', '/').split("/");
+        for (String part : path) {
+            if (part.equals("..")) {
+                return null; // Never write outside of the destination folders
+            }
+        }
+
+        String fileName = path[path.length - 1];
+        if (fileName.endsWith(".jar") && installed.test(fileName)) {
+            return new File(updateFolder, fileName);
+        }
+
+        if (path.length < 2 || path[0].isEmpty() || !installed.test(path[0])) {
+            return null;
+        }
+
+        // Files already in the data folder are kept, only new ones are added
+        File dataFolder = new File(pluginsFolder, path[0]);
+        Map<String, Boolean> tree = trees.get(dataFolder);
+        if (tree == null) {
+            tree = walk(dataFolder);
+            trees.put(dataFolder, tree);
+        }
+        StringBuilder relative = new StringBuilder();
+        for (int i = 1; i < path.length; i++) {
+            if (i > 1) {
+                relative.append('/');
+            }
+            relative.append(path[i]);
+            Boolean folder = tree.get(relative.toString());
+            if (folder != null && (i == path.length - 1 || !folder)) {
+                return null; // The file exists, or a file is in the way of its folder
+            }
+        }
+
+        File destination = dataFolder;
+        for (int i = 1; i < path.length; i++) {
+            destination = new File(destination, path[i]);
+        }
+        return destination;
+    }
+
+    /**
+     * Index the existing tree of a data folder, before anything is extracted
+     * into it. Whatever can't be read is taken as a file, and the walk goes on.
+     *
+     * @return the relative paths of every file and folder, separated by '/',
+     * mapped to true for folders
+     */
+    private static Map<String, Boolean> walk(File dataFolder) throws IOException {
+        Map<String, Boolean> tree = new HashMap<>();
+        if (!dataFolder.isDirectory()) {
+            return tree;
+        }
+
+        Path root = dataFolder.toPath();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (!dir.equals(root)) {
+                    tree.put(relative(root, dir), true);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                tree.put(relative(root, file), false);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // Unreadable, but there. Taken as a file, so nothing replaces it or is put under it
+                if (!file.equals(root)) {
+                    tree.put(relative(root, file), false);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+                return FileVisitResult.CONTINUE; // Keep what could be listed of a folder that failed partway
+            }
+        });
+        return tree;
+    }
+
+    private static String relative(Path root, Path path) {
+        return root.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Create the folder of a destination and register the hidden file it is
+     * staged in.
+     *
+     * @return the hidden file
+     */
+    private File prepare(File destination) {
+        File folder = destination.getParentFile();
+        folder.mkdirs();
+        File temp = new File(folder, "." + destination.getName() + ".part");
+        staged.remove(destination); // A later entry with the same destination wins
+        staged.put(destination, temp);
+        return temp;
+    }
+
+    /**
+     * Inflate pending entries until there are none left. Run by every worker
+     * with its own buffer. A failure empties the queue, so the other workers
+     * stop early.
+     */
+    private static void inflate(ZipFile zip, Queue<Map.Entry<File, ZipEntry>> pending) throws IOException {
+        ByteBuffer buffer = BufferPool.acquire();
+        try {
+            Map.Entry<File, ZipEntry> next;
+            while ((next = pending.poll()) != null) {
+                try (InputStream in = zip.getInputStream(next.getValue())) {
+                    write(in, next.getKey(), buffer);
+                } catch (IOException e) {
+                    pending.clear();
+                    throw e;
+                }
+            }
+        } finally {
+            BufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * Copy an entry into its hidden file through a pooled buffer, filling the
+     * whole buffer before each write so disk writes stay large.
+     */
+    private static void write(InputStream in, File temp, ByteBuffer buffer) throws IOException {
+        ReadableByteChannel source = Channels.newChannel(in); // Not closed, the stream belongs to the caller
+        try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            boolean eof = false;
+            while (!eof) {
+                buffer.clear();
+                while (buffer.hasRemaining()) {
+                    if (source.read(buffer) < 0) {
+                        eof = true;
+                        break;
+                    }
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package mc.alk.battlepluginupdater;
+
+import mc.euro.version.Version;
+import mc.euro.version.VersionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * {@link MigrationChain} against the same steps run as separate updaters, each
+ * on the output of the one before.
+ */
+public class MigrationChainTest {
+
+    private static final String[] SEARCHES = {"a: .*", ".*b.*", "  c: 3", "#.*", ".*", "e", "x"};
+    private static final String[] LINES = {"a: 1", "b: 2", "  c: 3", "# d", "a: b", "e", ""};
+
+    private File folder;
+    private File config;
+    private File backups;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("migration").toFile();
+        config = new File(folder, "config.yml");
+        backups = new File(folder, "backups");
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : new File[]{backups, folder}) {
+            File[] files = file.listFiles();
+            if (files != null) {
+                for (File child : files) {
+                    child.delete();
+                }
+            }
+            file.delete();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("rawtypes")
+    public void migratesByTheStepsAfterTheVersion() throws IOException {
+        String original = lines(
+                "configVersion: 1.0",
+                "  matchTime: 300",
+                "  victoryCondition: LastManStanding",
+                "  nLives: 1",
+                "# Old settings",
+                "  oldKey: 1");
+        write(original);
+
+        MigrationChain chain = new MigrationChain(config, backups);
+        chain.step(version("1.0")).replace(".*nLives:.*", "  nLives: 9"); // The file is already at 1.0
+        FileUpdater first = chain.step(version("1.5"));
+        first.replace(".*matchTime:.*", "  matchDuration: 300");
+        first.addAfter(".*victoryCondition:.*", "  victoryTime: 0");
+        FileUpdater second = chain.step(version("2.0"));
+        second.addBefore(".*victoryTime:.*", "  # Seconds, 0 for none"); // Only there once the step before ran
+        second.replaceAll("matchDuration", "duration");
+        FileUpdater third = chain.step(version("2.1"));
+        third.replace("configVersion: .*", "configVersion: 2.1");
+        third.deleteAllFrom("# Old.*");
+
+        Version updated = chain.migrate(version("1.0"));
+
+        assertEquals("2.1", updated.toString());
+        assertEquals(lines(
+                "configVersion: 2.1",
+                "  duration: 300",
+                "  victoryCondition: LastManStanding",
+                "  # Seconds, 0 for none",
+                "  victoryTime: 0",
+                "  nLives: 1"),
+                read(config));
+        assertEquals(inTurn(original, Arrays.asList(first, second, third)), read(config));
+        assertEquals(original, read(new File(backups, "config.1.0.yml")));
+    }
+
+    @Test
+    @SuppressWarnings("rawtypes")
+    public void leavesAFileAtTheLastVersionAlone() throws IOException {
+        String original = lines("configVersion: 2.0", "  matchTime: 300");
+        write(original);
+
+        MigrationChain chain = new MigrationChain(config, backups);
+        chain.step(version("2.0")).replace(".*matchTime:.*", "  matchDuration: 300");
+        Version version = version("2.0");
+
+        assertEquals(version, chain.migrate(version));
+        assertEquals(original, read(config));
+        assertFalse(backups.exists());
+    }
+
+    @Test
+    public void rewritesAsEachStepInTurn() throws IOException {
+        Random random = new Random(7);
+        for (int trial = 0; trial < 500; trial++) {
+            List<FileUpdater> steps = new ArrayList<>();
+            for (int s = random.nextInt(4); s >= 0; s--) {
+                FileUpdater step = new FileUpdater(config, backups, null, null);
+                for (int r = random.nextInt(4); r >= 0; r--) {
+                    String search = SEARCHES[random.nextInt(SEARCHES.length)];
+                    String line = LINES[random.nextInt(LINES.length)];
+                    switch (random.nextInt(6)) {
+                        case 0:
+                            step.addAfter(search, line, LINES[random.nextInt(LINES.length)]);
+                            break;
+                        case 1:
+                            step.addBefore(search, line);
+                            break;
+                        case 2:
+                            step.replace(search, line);
+                            break;
+                        case 3:
+                            step.delete(search);
+                            break;
+                        case 4:
+                            step.deleteAllFrom(search);
+                            break;
+                        default:
+                            step.replaceAll(search, line);
+                            break;
+                    }
+                }
+                steps.add(step);
+            }
+
+            List<String> text = new ArrayList<>();
+            for (int i = random.nextInt(12); i >= 0; i--) {
+                text.add(LINES[random.nextInt(LINES.length)]);
+            }
+            String original = String.join("\n", text) + "\n";
+
+            StringWriter out = new StringWriter();
+            FileUpdater.rewrite(new BufferedReader(new StringReader(original)), out, steps);
+            assertEquals(original, inTurn(original, steps), out.toString());
+        }
+    }
+
+    /** Run each step alone on the output of the one before. */
+    private static String inTurn(String text, List<FileUpdater> steps) throws IOException {
+        for (FileUpdater step : steps) {
+            StringWriter out = new StringWriter();
+            FileUpdater.rewrite(new BufferedReader(new StringReader(text)), out, Collections.singletonList(step));
+            text = out.toString();
+        }
+        return text;
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static Version version(String version) {
+        return VersionFactory.getNewVersion(version);
+    }
+
+    private static String lines(String... lines) {
+        return String.join("\n", lines) + "\n";
+    }
+
+    private void write(String text) throws IOException {
+        Files.write(config.toPath(), text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}
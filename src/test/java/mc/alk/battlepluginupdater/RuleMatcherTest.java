@@ -0,0 +1,202 @@
+package mc.alk.battlepluginupdater;
+
+import org.junit.Test;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link RuleMatcher} against the loop it replaced in {@link FileUpdater}, which
+ * tried every rule with {@link String#matches(String)} or {@link String#contains}
+ * and applied every replacement with {@link String#replaceAll(String, String)}.
+ */
+public class RuleMatcherTest {
+
+    private static final String[] PATTERNS = {
+            ".*matchTime:.*",
+            "configVersion:.*",
+            "  nLives: \\d+",
+            "^\\s*victoryCondition: .*$",
+            "a{2,3}xyz",
+            ".*[0-9]{1,3}.*",
+            "\\x41bcdef",
+            "\\p{Alpha}+:.*",
+            "\\Qa.b\\E.*",
+            "(?i).*MATCHTIME.*",
+            ".*(teams|lives):.*",
+            "teams|lives",
+            "(\\w+): \\1",
+            "\\0101bc.*",
+            ".*\\.yml",
+            ".*a\\.?b.*",
+            "[a[b]]x.*",
+            "[^:]*: [0-9]+",
+            "[]xyz]a",
+            "[^]x]y",
+            "ab+c.*",
+            "x*yz",
+            ".*\\$.*",
+            "\\tindent.*",
+            ".*",
+            "",
+    };
+
+    private static final String[] LINES = {
+            "",
+            "configVersion: 1.0",
+            "  matchTime: 300",
+            "  MatchTime: 300",
+            "  nLives: 1",
+            "  nLives: x",
+            "  victoryCondition: LastManStanding",
+            "aaxyz",
+            "aaaxyz",
+            "2,3xyz",
+            "value 1,3",
+            "value 42",
+            "Abcdef",
+            "41bcdef",
+            "Alpha:",
+            "Name: x",
+            "a.b.c",
+            "axb",
+            "teams: 2",
+            "lives: 3",
+            "teams",
+            "key: key",
+            "key: other",
+            "config.yml",
+            "ab",
+            "a.b",
+            "abbbc",
+            "ac",
+            "yz",
+            "xxyz",
+            "cost: $5",
+            "\tindent",
+            "bx",
+            "[x",
+            "count: 7",
+            "]a",
+            "xyz]a",
+            "ay",
+            "]y",
+    };
+
+    @Test
+    public void requiredLiteralOfPlainText() {
+        assertEquals("matchTime:", RuleMatcher.requiredLiteral(".*matchTime:.*"));
+        assertEquals("configVersion:", RuleMatcher.requiredLiteral("configVersion:.*"));
+        assertEquals(".yml", RuleMatcher.requiredLiteral(".*\\.yml"));
+        assertEquals("ab", RuleMatcher.requiredLiteral("ab+c*"));
+        assertEquals("a", RuleMatcher.requiredLiteral("[]xyz]a"));
+        assertEquals("y", RuleMatcher.requiredLiteral("[^]x]y"));
+    }
+
+    @Test
+    public void noRequiredLiteralWhereTextIsNotPlain() {
+        assertNull(RuleMatcher.requiredLiteral("a{2,3}xyz"));
+        assertNull(RuleMatcher.requiredLiteral(".*[0-9]{1,3}.*"));
+        assertNull(RuleMatcher.requiredLiteral("\\x41bcdef"));
+        assertNull(RuleMatcher.requiredLiteral("\\p{Alpha}+:"));
+        assertNull(RuleMatcher.requiredLiteral("\\0101bc.*"));
+        assertNull(RuleMatcher.requiredLiteral("(\\w+): \\1"));
+        assertNull(RuleMatcher.requiredLiteral("[a[b]]x.*"));
+        assertNull(RuleMatcher.requiredLiteral("teams|lives"));
+        assertNull(RuleMatcher.requiredLiteral("(?i).*MATCHTIME.*"));
+        assertNull(RuleMatcher.requiredLiteral("\\Qa.b\\E.*"));
+    }
+
+    @Test
+    public void everyMatchContainsTheRequiredLiteral() {
+        for (String pattern : PATTERNS) {
+            String literal = RuleMatcher.requiredLiteral(pattern);
+            if (literal == null) {
+                continue;
+            }
+            for (String line : lines(new Random(1), 200)) {
+                if (Pattern.compile(pattern).matcher(line).find()) {
+                    assertTrue(pattern + " matched " + line + " without " + literal, line.contains(literal));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void matchesAsEachRuleInTurn() {
+        Random random = new Random(42);
+        for (int trial = 0; trial < 500; trial++) {
+            List<FileUpdater.Update> updates = new ArrayList<>();
+            for (int i = random.nextInt(6); i >= 0; i--) {
+                String search = PATTERNS[random.nextInt(PATTERNS.length)];
+                FileUpdater.SearchType type = random.nextInt(4) == 0 ? FileUpdater.SearchType.CONTAINS
+                        : FileUpdater.SearchType.MATCHES;
+                updates.add(new FileUpdater.Update(search, FileUpdater.UpdateType.REPLACE, type, "x"));
+            }
+
+            RuleMatcher rules = new RuleMatcher(updates, new ArrayList<Map.Entry<String, String>>());
+            for (String line : lines(random, 50)) {
+                assertSame(updates + " on " + line, oldMatch(updates, line), rules.match(line));
+            }
+        }
+    }
+
+    @Test
+    public void replacesAsEachReplacementInTurn() {
+        Random random = new Random(7);
+        String[] replacements = {"X", "$0$0", "", "a", "\\$"};
+        for (int trial = 0; trial < 500; trial++) {
+            List<Map.Entry<String, String>> replaces = new ArrayList<>();
+            for (int i = random.nextInt(5); i >= 0; i--) {
+                String search = PATTERNS[random.nextInt(PATTERNS.length - 2)]; // Not the ones matching the empty string
+                replaces.add(new AbstractMap.SimpleEntry<>(search, replacements[random.nextInt(replacements.length)]));
+            }
+
+            RuleMatcher rules = new RuleMatcher(new ArrayList<FileUpdater.Update>(), replaces);
+            for (String line : lines(random, 50)) {
+                assertEquals(replaces + " on " + line, oldReplace(replaces, line), rules.replace(line));
+            }
+        }
+    }
+
+    private static FileUpdater.Update oldMatch(List<FileUpdater.Update> updates, String line) {
+        for (FileUpdater.Update update : updates) {
+            if (update.searchType == FileUpdater.SearchType.CONTAINS ? line.contains(update.search) : line.matches(update.search)) {
+                return update;
+            }
+        }
+        return null;
+    }
+
+    private static String oldReplace(List<Map.Entry<String, String>> replaces, String line) {
+        for (Map.Entry<String, String> replace : replaces) {
+            line = line.replaceAll(replace.getKey(), replace.getValue());
+        }
+        return line;
+    }
+
+    /** The sample lines, then lines made of pieces of them. */
+    private static List<String> lines(Random random, int count) {
+        List<String> lines = new ArrayList<>(Arrays.asList(LINES));
+        for (int i = 0; i < count; i++) {
+            StringBuilder line = new StringBuilder();
+            for (int j = random.nextInt(3); j >= 0; j--) {
+                String piece = LINES[random.nextInt(LINES.length)];
+                int start = random.nextInt(piece.length() + 1);
+                line.append(piece, start, start + random.nextInt(piece.length() - start + 1));
+            }
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,118 @@
+package mc.alk.battlepluginupdater;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * How the {@link UpdateExecutor} deals with a full queue and with executors
+ * it does not own.
+ */
+public class UpdateExecutorTest {
+
+    @After
+    public void tearDown() {
+        UpdateExecutor.shutdown();
+    }
+
+    @Test
+    public void rejectsInsteadOfRunningOnTheCaller() throws InterruptedException {
+        ExecutorService pool = UpdateExecutor.newExecutor(1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            pool.execute(() -> await(release)); // Takes the thread
+            pool.execute(() -> await(release)); // Fills the queue
+            Thread caller = Thread.currentThread();
+            pool.execute(() -> assertNotSame(caller, Thread.currentThread()));
+            fail("Ran a task that did not fit");
+        } catch (RejectedExecutionException e) {
+            // Expected
+        } finally {
+            release.countDown();
+            pool.shutdown();
+            pool.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void runsOverflowOfAnUpdateTaskOnItsThread() throws Exception {
+        ExecutorService pool = UpdateExecutor.newExecutor(1, 1);
+        UpdateExecutor.setExecutor(pool); // Not owned, so shut down here
+        CountDownLatch release = new CountDownLatch(1);
+        boolean[] inline = new boolean[1];
+        try {
+            UpdateExecutor.submit(() -> {
+                Thread thread = Thread.currentThread();
+                UpdateExecutor.execute(() -> await(release)); // Fills the queue
+                UpdateExecutor.execute(() -> inline[0] = Thread.currentThread() == thread);
+            }).get(5, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+            pool.shutdown();
+            pool.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        assertTrue(inline[0]);
+    }
+
+    @Test
+    public void failsTheFutureOfARejectedSupplier() throws InterruptedException {
+        ExecutorService pool = UpdateExecutor.newExecutor(1, 1);
+        UpdateExecutor.setExecutor(pool); // Not owned, so shut down here
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            UpdateExecutor.execute(() -> await(release));
+            UpdateExecutor.execute(() -> await(release));
+            try {
+                UpdateExecutor.supplyAsync(() -> 1).get();
+                fail("Supplied a value that did not fit");
+            } catch (ExecutionException e) {
+                assertEquals(RejectedExecutionException.class, e.getCause().getClass());
+            }
+        } finally {
+            release.countDown();
+            pool.shutdown();
+            pool.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void leavesAnExecutorItDoesNotOwnRunning() {
+        ExecutorService own = Executors.newSingleThreadExecutor();
+        try {
+            UpdateExecutor.setExecutor(own);
+            UpdateExecutor.shutdown();
+            assertFalse(own.isShutdown());
+            assertNotSame(own, UpdateExecutor.get());
+        } finally {
+            own.shutdown();
+        }
+    }
+
+    @Test
+    public void shutsDownItsOwnExecutor() {
+        ExecutorService created = UpdateExecutor.get();
+        UpdateExecutor.shutdown();
+        assertTrue(created.isShutdown());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
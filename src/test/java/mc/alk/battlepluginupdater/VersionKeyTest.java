@@ -0,0 +1,133 @@
+package mc.alk.battlepluginupdater;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The ordering of {@link VersionKey}, and {@link Updater#versionOf(String)}
+ * against the split it replaced.
+ */
+public class VersionKeyTest {
+
+    /** From oldest to newest, each strictly newer than the one before. */
+    private static final String[] ORDERED = {
+            "0.9",
+            "1",
+            "1.0",
+            "1.2-SNAPSHOT",
+            "1.2-alpha",
+            "1.2-beta2",
+            "1.2-rc1",
+            "1.2",
+            "1.2.0",
+            "1.2.1",
+            "1.9",
+            "1.10",
+            "2.0-beta",
+            "2.0",
+            "10.0",
+    };
+
+    @Test
+    public void sortsByComponentsThenLengthThenRank() {
+        List<VersionKey> keys = new ArrayList<>();
+        for (String version : ORDERED) {
+            keys.add(VersionKey.parse(version));
+        }
+        List<VersionKey> shuffled = new ArrayList<>(keys);
+        Collections.shuffle(shuffled, new Random(1));
+        Collections.sort(shuffled);
+        assertEquals(keys, shuffled);
+
+        for (int i = 1; i < keys.size(); i++) {
+            assertTrue(ORDERED[i] + " should be newer than " + ORDERED[i - 1], keys.get(i).isNewerThan(keys.get(i - 1)));
+        }
+    }
+
+    @Test
+    public void findsTheFirstNumbersAndQualifier() {
+        VersionKey plain = VersionKey.parse("1.2.3");
+        assertEquals(plain, VersionKey.parse("v1.2.3"));
+        assertEquals(plain, VersionKey.parse("BattleArena 1.2.3"));
+        assertEquals(plain, VersionKey.parse("1.2.3-RELEASE"));
+        assertEquals(VersionKey.parse("1.2.3-dev"), VersionKey.parse("1.2.3-SNAPSHOT"));
+        assertEquals(VersionKey.parse("1.2.3-pre"), VersionKey.parse("1.2.3-RC"));
+        assertTrue(plain.isNewerThan(VersionKey.parse("1.2.3-SNAPSHOT")));
+    }
+
+    @Test
+    public void tiesPastTheFirstNumbers() {
+        // Only the first run of numbers counts, callers fall back to the strings on a tie
+        assertEquals(0, VersionKey.parse("1.2.3-b45").compareTo(VersionKey.parse("1.2.3-b46")));
+        assertEquals(0, VersionKey.parse("1.2.3 (build 7)").compareTo(VersionKey.parse("1.2.3")));
+    }
+
+    @Test
+    public void saturatesLongNumbers() {
+        assertTrue(VersionKey.parse("99999999999999999999").isNewerThan(VersionKey.parse("2147483646")));
+    }
+
+    @Test
+    public void parsesNothingWithoutANumber() {
+        assertNull(VersionKey.parse(null));
+        assertNull(VersionKey.parse(""));
+        assertNull(VersionKey.parse("latest"));
+    }
+
+    @Test
+    public void cachesKeys() {
+        assertSame(VersionKey.parse("3.4.5"), VersionKey.parse("3.4.5"));
+        assertEquals("v3.4.5", VersionKey.parse("v3.4.5").toString());
+    }
+
+    @Test
+    public void findsTheVersionOfATitleAsTheSplitDid() {
+        List<String> titles = new ArrayList<>(Arrays.asList(
+                "BattleArena v3.9.7",
+                "BattleArena v3.9.7 for 1.8",
+                "v1.0",
+                "BattleArena_v1.0",
+                "BattleArena-v1.0-beta",
+                "BattleArena 1.0",
+                "BattleArena v",
+                "BattleArena v1.0 v2.0",
+                "BattleArena v1.0 v",
+                "BattleArena v1.0 vv",
+                "Plugin v 1.0",
+                "vv1",
+                "",
+                "v"));
+        Random random = new Random(21);
+        char[] alphabet = {'v', 'v', ' ', '_', '-', '\t', '1', '.', 'a', 'V'};
+        for (int i = 0; i < 100000; i++) {
+            char[] title = new char[random.nextInt(9)];
+            for (int j = 0; j < title.length; j++) {
+                title[j] = alphabet[random.nextInt(alphabet.length)];
+            }
+            titles.add(new String(title));
+        }
+
+        for (String title : titles) {
+            assertEquals("'" + title + "'", oldVersionOf(title), Updater.versionOf(title));
+        }
+    }
+
+    private static String oldVersionOf(String title) {
+        String[] parts = title.split("^v|[\\s_-]v");
+        if (parts.length != 2) {
+            return null;
+        }
+        String[] words = parts[1].split(" ");
+        return words.length == 0 ? "" : words[0]; // The split threw when only spaces followed the "v"
+    }
+}
@@ -0,0 +1,215 @@
+package mc.alk.battlepluginupdater;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link YamlUpdater} on documents in memory, checking the lines it writes.
+ */
+public class YamlUpdaterTest {
+
+    private final YamlUpdater updater = new YamlUpdater(new File("config.yml"), new File("backups"), null, null);
+
+    private String update(String... lines) throws IOException {
+        StringWriter out = new StringWriter();
+        updater.update(new BufferedReader(new StringReader(String.join("\n", lines) + "\n")), out);
+        return out.toString();
+    }
+
+    private static String lines(String... lines) {
+        return String.join("\n", lines) + "\n";
+    }
+
+    @Test
+    public void renamesAKeyInPlace() throws IOException {
+        updater.rename("arenas.default.nLives", "lives");
+        assertEquals(lines(
+                "arenas:",
+                "  default:",
+                "    lives: 1 # Per player",
+                "    teams: 2",
+                "nLives: 3"),
+                update(
+                        "arenas:",
+                        "  default:",
+                        "    nLives: 1 # Per player",
+                        "    teams: 2",
+                        "nLives: 3"));
+    }
+
+    @Test
+    public void renamesOntoAKeyThatIsRenamedAway() throws IOException {
+        updater.rename("a", "b");
+        updater.rename("b", "c");
+        assertEquals(lines("b: 1", "c: 2"), update("a: 1", "b: 2"));
+    }
+
+    @Test
+    public void rejectsARenameOntoASibling() {
+        updater.rename("a", "b");
+        for (String[] document : new String[][]{{"a: 1", "b: 2"}, {"b: 2", "a: 1"}}) {
+            try {
+                update(document);
+                fail("Renamed a onto b in " + String.join(", ", document));
+            } catch (IOException e) {
+                // Expected, the file is left as it was
+            }
+        }
+    }
+
+    @Test
+    public void movesAKeyWithItsComments() throws IOException {
+        updater.move("old.teams", "arenas.default.teams");
+        assertEquals(lines(
+                "old:",
+                "  other: x",
+                "arenas:",
+                "  default:",
+                "    lives: 1",
+                "    teams:",
+                "      # The minimum",
+                "      min: 2"),
+                update(
+                        "old:",
+                        "  teams:",
+                        "    # The minimum",
+                        "    min: 2",
+                        "  other: x",
+                        "arenas:",
+                        "  default:",
+                        "    lives: 1"));
+    }
+
+    @Test
+    public void movesIntoMissingSections() throws IOException {
+        updater.move("a", "b.c.a");
+        assertEquals(lines("x: 1", "b:", "  c:", "    a: 2"), update("a: 2", "x: 1"));
+    }
+
+    @Test
+    public void keepsAKeyAlreadyAtTheNewPath() throws IOException {
+        updater.move("a", "b");
+        assertEquals(lines("b: 2"), update("a: 1", "b: 2"));
+    }
+
+    @Test
+    public void deletesAKeyAndItsSection() throws IOException {
+        updater.delete("a");
+        updater.delete("c.d");
+        assertEquals(lines("b: 1", "c:", "  e: 3"), update(
+                "a:",
+                "  x: 1",
+                "  y:",
+                "  - 1",
+                "b: 1",
+                "c:",
+                "  d: |",
+                "    text",
+                "  e: 3"));
+    }
+
+    @Test
+    public void addsMissingDefaults() throws IOException {
+        updater.addDefault("a.b", 1);
+        updater.addDefault("a.c", "x");
+        updater.addDefault("d.e", true);
+        updater.addDefault("f", 2);
+        assertEquals(lines(
+                "# Settings",
+                "a:",
+                "  b: 5",
+                "  c: x",
+                "f: 3",
+                "d:",
+                "  e: true"),
+                update(
+                        "# Settings",
+                        "a:",
+                        "  b: 5",
+                        "f: 3"));
+    }
+
+    @Test
+    public void addsDefaultsToAFileOfComments() throws IOException {
+        updater.addDefault("a", 1);
+        assertEquals(lines("# Nothing yet", "a: 1"), update("# Nothing yet"));
+    }
+
+    @Test
+    public void transformsSingleValues() throws IOException {
+        updater.transform("a", value -> Integer.parseInt(value) * 2);
+        updater.transform("b", value -> value == null ? "none" : value);
+        updater.transform("c", value -> value.toUpperCase());
+        assertEquals(lines("a: 4 # Doubled", "b: none", "c: TEXT", "d: 1"), update(
+                "a: 2 # Doubled",
+                "b:",
+                "c: 'text'",
+                "d: 1"));
+    }
+
+    @Test
+    public void transformsBlockScalarsToOneLine() throws IOException {
+        updater.transform("a", value -> value.trim());
+        assertEquals(lines("a: \"one\\ntwo\"", "b: 1"), update(
+                "a: |",
+                "  one",
+                "  two",
+                "b: 1"));
+    }
+
+    @Test
+    public void keepsBlockScalarsOfOtherKeys() throws IOException {
+        updater.rename("b", "c");
+        assertEquals(lines("a: >", "  b: not a key", "c: 1"), update(
+                "a: >",
+                "  b: not a key",
+                "b: 1"));
+    }
+
+    @Test
+    public void skipsUpdatesInsideFlowMappings() throws IOException {
+        updater.rename("a.b", "c");
+        updater.addDefault("a.d", 2);
+        updater.transform("a.b", value -> "x");
+        updater.delete("a.b");
+        assertEquals(lines("a: {b: 1}", "e: 3"), update("a: {b: 1}", "e: 3"));
+    }
+
+    @Test
+    public void leavesAKeyThatCantBeMovedIntoAFlowMapping() throws IOException {
+        updater.move("e", "a.e");
+        assertEquals(lines("a: {b: 1}", "e: 3"), update("a: {b: 1}", "e: 3"));
+    }
+
+    @Test(expected = IOException.class)
+    public void failsToMoveAKeyAlreadyReadIntoAFlowMapping() throws IOException {
+        updater.move("e", "a.e");
+        update("e: 3", "a: {b: 1}");
+    }
+
+    @Test
+    public void keepsCommentsAndBlankLines() throws IOException {
+        updater.delete("b");
+        assertEquals(lines(
+                "# Header",
+                "",
+                "a: 1 # Inline",
+                "",
+                "# Trailing"),
+                update(
+                        "# Header",
+                        "",
+                        "a: 1 # Inline",
+                        "b: 2",
+                        "",
+                        "# Trailing"));
+    }
+}
@@ -0,0 +1,71 @@
+package mc.alk.battlepluginupdater.checker;
+
+import org.bukkit.plugin.Plugin;
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * {@link UpdateCheckerRegistry} across plugin instances, as after a reload.
+ */
+public class UpdateCheckerRegistryTest {
+
+    private static Plugin plugin(AtomicBoolean enabled) {
+        return (Plugin) Proxy.newProxyInstance(Plugin.class.getClassLoader(), new Class<?>[]{Plugin.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "isEnabled":
+                            return enabled.get();
+                        case "getName":
+                            return "Test";
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    @After
+    public void tearDown() {
+        for (UpdateChecker checker : UpdateCheckerRegistry.getCheckers()) {
+            UpdateCheckerRegistry.unregister(checker.getPlugin());
+        }
+    }
+
+    @Test
+    public void keepsTheCheckerOfAnEnabledPlugin() {
+        AtomicBoolean enabled = new AtomicBoolean(true);
+        GitHubUpdateChecker first = GitHubUpdateChecker.init(plugin(enabled), "owner", "repo");
+        assertSame(first, GitHubUpdateChecker.init(plugin(new AtomicBoolean(true)), "owner", "repo"));
+    }
+
+    @Test
+    public void replacesTheCheckerOfADisabledInstance() {
+        AtomicBoolean enabled = new AtomicBoolean(true);
+        Plugin old = plugin(enabled);
+        GitHubUpdateChecker first = GitHubUpdateChecker.init(old, "owner", "repo");
+        enabled.set(false);
+
+        Plugin reloaded = plugin(new AtomicBoolean(true));
+        GitHubUpdateChecker second = GitHubUpdateChecker.init(reloaded, "owner", "repo");
+        assertNotSame(first, second);
+        assertSame(reloaded, second.getPlugin());
+        assertSame(second, UpdateCheckerRegistry.first(GitHubUpdateChecker.class, reloaded));
+    }
+
+    @Test
+    public void dropsTheCheckersOfAnUnregisteredPlugin() {
+        Plugin old = plugin(new AtomicBoolean(true));
+        GitHubUpdateChecker first = GitHubUpdateChecker.init(old, "owner", "repo");
+        UpdateCheckerRegistry.unregister(old);
+        assertNotSame(first, GitHubUpdateChecker.init(plugin(new AtomicBoolean(true)), "owner", "repo"));
+    }
+}
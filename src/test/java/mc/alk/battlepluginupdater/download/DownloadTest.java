@@ -0,0 +1,181 @@
+package mc.alk.battlepluginupdater.download;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link Download} from an HTTP server in the same JVM that answers If-Range
+ * as RFC 7233 asks: only a strong ETag or the exact modification date gets a
+ * range, anything else gets the whole file.
+ */
+public class DownloadTest {
+
+    private static final int SIZE = 4 * 1024 * 1024 + 123;
+    private static final String LAST_MODIFIED = "Sat, 17 Oct 2026 10:00:00 GMT";
+
+    private byte[] body;
+    private HttpServer server;
+    private ExecutorService serverThreads;
+    private File folder;
+
+    private String etag;
+    private String lastModified;
+    private boolean honorRanges = true;
+    private boolean misplaceRanges; // Answer ranges with a 206 of the whole file
+    private final AtomicInteger partial = new AtomicInteger();
+    private final AtomicInteger full = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        body = new byte[SIZE];
+        new Random(42).nextBytes(body);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/release.jar", this::serve);
+        serverThreads = Executors.newFixedThreadPool(8);
+        server.setExecutor(serverThreads);
+        server.start();
+        folder = Files.createTempDirectory("download").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        serverThreads.shutdownNow();
+        for (File file : new File[]{new File(folder, ".staging"), folder}) {
+            File[] files = file.listFiles();
+            if (files != null) {
+                for (File child : files) {
+                    child.delete();
+                }
+            }
+            file.delete();
+        }
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        try (InputStream request = exchange.getRequestBody()) {
+            while (request.read() >= 0) {
+                // Read the exchange before answering it
+            }
+        }
+
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        boolean validatorMatches = ifRange == null
+                || (etag != null && !etag.startsWith("W/") && ifRange.equals(etag))
+                || ifRange.equals(lastModified);
+        long start = 0, end = SIZE - 1;
+        boolean isPartial = honorRanges && range != null && validatorMatches;
+        if (isPartial) {
+            String[] bounds = range.substring("bytes=".length()).split("-", 2);
+            start = Long.parseLong(bounds[0]);
+            if (!bounds[1].isEmpty()) {
+                end = Math.min(end, Long.parseLong(bounds[1]));
+            }
+            if (misplaceRanges) {
+                start = 0;
+                end = SIZE - 1;
+            }
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + SIZE);
+            partial.incrementAndGet();
+        } else {
+            full.incrementAndGet();
+        }
+        if (etag != null) {
+            exchange.getResponseHeaders().set("ETag", etag);
+        }
+        if (lastModified != null) {
+            exchange.getResponseHeaders().set("Last-Modified", lastModified);
+        }
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        exchange.sendResponseHeaders(isPartial ? 206 : 200, end - start + 1);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body, (int) start, (int) (end - start + 1));
+        } catch (IOException e) {
+            // The client hung up on the rest of a segmented response
+        }
+    }
+
+    private String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/release.jar";
+    }
+
+    private byte[] download() throws IOException {
+        Download download = new Download(url(), new File(folder, "release.jar"));
+        download.setConnections(4);
+        return Files.readAllBytes(download.run().toPath());
+    }
+
+    @Test
+    public void splitsWithStrongETag() throws IOException {
+        etag = "\"v1\"";
+        assertArrayEquals(body, download());
+        assertEquals(1, full.get());
+        assertEquals(3, partial.get());
+    }
+
+    @Test
+    public void doesNotSplitWithWeakETagAlone() throws IOException {
+        etag = "W/\"v1\"";
+        assertArrayEquals(body, download());
+        assertEquals(1, full.get());
+        assertEquals(0, partial.get());
+    }
+
+    @Test
+    public void splitsWithModificationDateWhenETagIsWeak() throws IOException {
+        etag = "W/\"v1\"";
+        lastModified = LAST_MODIFIED;
+        assertArrayEquals(body, download());
+        assertEquals(3, partial.get());
+    }
+
+    @Test
+    public void fallsBackToOneStreamWhenRangesAreRefused() throws IOException {
+        etag = "\"v1\"";
+        honorRanges = false;
+        assertArrayEquals(body, download());
+        // The first response and up to three refused ranges, then one download in one piece, not a split per attempt
+        assertTrue("Expected one refused split then one download, got " + full.get() + " whole responses", full.get() <= 5);
+    }
+
+    @Test
+    public void startsOverWhenAResumeGetsAnotherRange() throws IOException {
+        etag = "\"v1\"";
+        misplaceRanges = true;
+        File staging = new File(folder, ".staging");
+        staging.mkdirs();
+        Files.write(new File(staging, "release.jar.part").toPath(), new byte[1000]); // Not the start of the body
+        Properties meta = new Properties();
+        meta.setProperty("url", url());
+        meta.setProperty("etag", etag);
+        meta.setProperty("received", "1000");
+        try (OutputStream out = new FileOutputStream(new File(staging, "release.jar.part.meta"))) {
+            meta.store(out, null);
+        }
+
+        assertArrayEquals(body, download());
+        assertTrue(partial.get() >= 1);
+    }
+}